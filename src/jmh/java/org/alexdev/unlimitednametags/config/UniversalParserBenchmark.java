@@ -0,0 +1,46 @@
+package org.alexdev.unlimitednametags.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting a {@link Formatter#UNIVERSAL} line through the single pass translation and through MineDown
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UniversalParserBenchmark {
+
+    @Param({
+            "&6Gold &7[&fAdmin&7] &fName",
+            "&#ff8800Orange &lbold &x&1&2&3&a&b&cText",
+            "<gradient:red:blue>Gradient</gradient> &cred &lbold"
+    })
+    public String text;
+
+    @Benchmark
+    public Component singlePass() {
+        return MiniMessage.miniMessage().deserialize(UniversalParser.toMiniMessage(text));
+    }
+
+    @Benchmark
+    public Component mineDown() {
+        return MiniMessage.miniMessage().deserialize(UniversalParser.viaMineDown(text));
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.alexdev.unlimitednametags.nametags;
+
+import org.alexdev.unlimitednametags.config.Settings;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving the nametag group of a player through the permissions on every refresh, against the cached lookup.
+ * The player checks permissions like the default permissible of the server, a permission plugin adds its own cost on top.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameTagGroupCacheBenchmark {
+
+    @Param({"10", "500"})
+    public int permissions;
+
+    private Settings settings;
+    private NameTagGroupCache cache;
+    private Player player;
+
+    @Setup
+    public void setup() {
+        settings = new Settings();
+        cache = new NameTagGroupCache();
+        final Set<String> granted = new HashSet<>();
+        for (int i = 0; i < permissions; i++) {
+            granted.add("plugin.permission." + i);
+        }
+        granted.add("nametag.default");
+        player = createPlayer(UUID.randomUUID(), granted);
+    }
+
+    @Benchmark
+    public Settings.NameTag resolve() {
+        return settings.getNametag(player);
+    }
+
+    @Benchmark
+    public Settings.NameTag cached() {
+        return cache.get(player, settings);
+    }
+
+    private static Player createPlayer(UUID uuid, Set<String> permissions) {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> uuid;
+            case "hasPermission" -> args[0] instanceof String permission && permissions.contains(permission.toLowerCase(Locale.ROOT));
+            case "hashCode" -> uuid.hashCode();
+            case "equals" -> proxy == args[0];
+            case "toString" -> "Player{" + uuid + "}";
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+}
@@ -97,12 +97,11 @@ public final class UnlimitedNameTags extends JavaPlugin {
                 getServer().getPluginManager().disablePlugin(this);
                 return;
             }
-            getLogger().info("Paper not found, using Spigot's tracker");
-            new SpigotTrackerListener(this);
+            getLogger().info("Paper not found, tracking players from the spawn packets");
         }
 
         getLogger().info("PacketEvents found, hooking into it");
-        packetEventsListener = new PacketEventsListener(this);
+        packetEventsListener = new PacketEventsListener(this, !isPaper);
         packetEventsListener.onEnable();
     }
 
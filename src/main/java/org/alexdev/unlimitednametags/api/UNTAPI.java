@@ -7,6 +7,8 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.function.BiPredicate;
+
 /**
  * The UnlimitedNameTags API class.
  * Retrieve an instance of the API class via {@link #getInstance()}.
@@ -58,6 +60,8 @@ public class UNTAPI {
 
     /**
      * Sets the VanishIntegration for the UNTAPI.
+     * Its results are checked again on every lookup, unless {@link VanishIntegration#isCacheable()} returns true
+     * because the integration notifies every visibility change.
      *
      * @param vanishIntegration the VanishIntegration to set
      */
@@ -94,6 +98,44 @@ public class UNTAPI {
         plugin.getVanishManager().unVanishPlayer(player);
     }
 
+    /**
+     * Notifies that the visibility of a player changed without calling {@link #vanishPlayer(Player)} or {@link #unVanishPlayer(Player)},
+     * so that the cached results of the {@link VanishIntegration} for that player are discarded.
+     *
+     * @param player The player whose visibility changed
+     */
+    public void notifyVisibilityChanged(@NotNull Player player) {
+        plugin.getVanishManager().invalidate(player);
+    }
+
+    /**
+     * Resolves the nametag group of the player again on the next refresh.
+     * Call it after changing the permissions of a player to update their nametag without waiting for the cache to expire.
+     *
+     * @param player The player whose nametag group changed
+     */
+    public void refreshNametagGroup(@NotNull Player player) {
+        plugin.getNametagManager().invalidateNametag(player);
+    }
+
+    /**
+     * Adds a rule for nametags that are always shown, even when the viewer reached the maximum amount of visible nametags.
+     * The predicate is tested asynchronously with the viewer and the owner of the nametag, for example to exempt party members.
+     *
+     * @param exemption The rule, returning true if the nametag of the owner must always be shown to the viewer
+     */
+    public void addVisibilityExemption(@NotNull BiPredicate<Player, Player> exemption) {
+        plugin.getNametagManager().getCrowdCuller().addExemption(exemption);
+    }
+
+    /**
+     * Removes a rule previously added with {@link #addVisibilityExemption(BiPredicate)}.
+     *
+     * @param exemption The rule to remove
+     */
+    public void removeVisibilityExemption(@NotNull BiPredicate<Player, Player> exemption) {
+        plugin.getNametagManager().getCrowdCuller().removeExemption(exemption);
+    }
 
     static final class NotRegisteredException extends IllegalStateException {
 
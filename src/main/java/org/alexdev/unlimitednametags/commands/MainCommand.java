@@ -22,6 +22,7 @@ public class MainCommand {
     @Require(value = "unt.reload", message = "&cYou do not have permission to reload the plugin")
     public void onReload(@Sender CommandSender sender) {
         plugin.getConfigManager().reload();
+        plugin.getPlaceholderManager().reload();
         plugin.getNametagManager().reload();
         plugin.getKyoriManager().sendMessage(sender, Formatter.LEGACY.format(plugin, sender, "&aUnlimitedNameTags has been reloaded!"));
     }
@@ -41,7 +42,7 @@ public class MainCommand {
     @Command(name = "show", desc = "Shows the nametag", usage = "/unt show")
     @Require(value = "unt.show", message = "&cYou do not have permission to show the nametag")
     public void onShow(@Sender CommandSender sender, Player target) {
-        plugin.getNametagManager().showToTrackedPlayers(target, plugin.getTrackerManager().getTrackedPlayers(target.getUniqueId()));
+        plugin.getNametagManager().showToTrackedPlayers(target, plugin.getTrackerManager().getTrackers(target.getUniqueId()));
     }
 
     @Command(name = "test", desc = "Tests the plugin", usage = "/unt test")
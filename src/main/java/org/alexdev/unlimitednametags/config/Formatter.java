@@ -1,7 +1,9 @@
 package org.alexdev.unlimitednametags.config;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import de.themoep.minedown.adventure.MineDown;
-import lombok.AccessLevel;
 import lombok.Getter;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
@@ -11,8 +13,6 @@ import org.alexdev.unlimitednametags.hook.MiniPlaceholdersHook;
 import org.bukkit.command.CommandSender;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Different formatting markup options for the TAB list
@@ -22,45 +22,31 @@ public enum Formatter {
 
     MINEDOWN(
             (plugin, player, text) -> new MineDown(text).toComponent(),
-            "MineDown"
+            "MineDown",
+            false
     ),
     MINIMESSAGE(
             (plugin, player, text) -> plugin.getHook(MiniPlaceholdersHook.class)
                     .map(hook -> hook.format(text, player))
                     .orElse(MiniMessage.miniMessage().deserialize(text)),
-            "MiniMessage"
+            "MiniMessage",
+            true
     ),
     LEGACY(
             (plugin, player, text) -> LegacyComponentSerializer.legacyAmpersand().deserialize(text),
-            "Legacy Text"
+            "Legacy Text",
+            false
     ),
     UNIVERSAL(
             (plugin, player, text) -> {
-                text = text.replaceAll(getLEGACY_RESET(), getREPLACE_RESET());
-                text = getHEX().serialize(getSTUPID().deserialize(text));
-                text = replaceHexColorCodes(text);
-                text = text.replaceAll(getREPLACE_RESET(), getLEGACY_RESET());
-                final Component component = MINEDOWN.formatter.apply(plugin, player, text);
-                final String string = MiniMessage.miniMessage().serialize(component).replace("\\<", "<").replace("\\", "");
-                return MINIMESSAGE.formatter.apply(plugin, player, string);
+                final String miniMessage = UniversalParser.toMiniMessage(text);
+                // MineDown syntax, go through the full conversion
+                return MINIMESSAGE.formatter.apply(plugin, player, miniMessage != null ? miniMessage : UniversalParser.viaMineDown(text));
             },
-            "Universal"
+            "Universal",
+            true
     );
 
-    @NotNull
-    private static String replaceHexColorCodes(@NotNull String text) {
-        final Matcher matcher = getHEX_PATTERN().matcher(text);
-        final StringBuilder valueBuffer = new StringBuilder();
-        while (matcher.find()) {
-            final String hex = matcher.group();
-            final int start = matcher.start();
-            final int end = matcher.end();
-            matcher.appendReplacement(valueBuffer, hex + "&");
-        }
-        matcher.appendTail(valueBuffer);
-        return valueBuffer.toString();
-    }
-
     /**
      * Name of the formatter
      */
@@ -72,29 +58,27 @@ public enum Formatter {
      */
     private final TriFunction<UnlimitedNameTags, CommandSender, String, Component> formatter;
 
-    @Getter(value = AccessLevel.PRIVATE)
-    private final static Pattern HEX_PATTERN = Pattern.compile("&#[a-fA-F0-9]{6}");
-    @Getter(value = AccessLevel.PRIVATE)
-    private final static String LEGACY_RESET = "&r";
-    @Getter(value = AccessLevel.PRIVATE)
-    private final static String REPLACE_RESET = "###RESET###";
-    @Getter(value = AccessLevel.PRIVATE)
-    private final static LegacyComponentSerializer STUPID = LegacyComponentSerializer.builder()
-            .character('&')
-            .hexCharacter('#')
-            .useUnusualXRepeatedCharacterHexFormat()
-            .hexColors()
-            .build();
-    @Getter(value = AccessLevel.PRIVATE)
-    private final static LegacyComponentSerializer HEX = LegacyComponentSerializer.builder()
-            .character('&')
-            .hexCharacter('#')
-            .hexColors()
-            .build();
+    /**
+     * Whether the output depends on the audience, which is the case when MiniPlaceholders is hooked
+     */
+    private final boolean audienceDependent;
 
-    Formatter(@NotNull TriFunction<UnlimitedNameTags, CommandSender, String, Component> formatter, @NotNull String name) {
+    /**
+     * Memoized output of the formatter, most lines are identical from refresh to refresh and across players
+     */
+    private final Cache<String, Component> cache;
+
+    private final static int CACHE_SIZE = 4096;
+
+    Formatter(@NotNull TriFunction<UnlimitedNameTags, CommandSender, String, Component> formatter, @NotNull String name,
+              boolean audienceDependent) {
         this.formatter = formatter;
         this.name = name;
+        this.audienceDependent = audienceDependent;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .recordStats()
+                .build();
     }
 
     /**
@@ -104,7 +88,39 @@ public enum Formatter {
      * @return the formatted string
      */
     public Component format(@NotNull UnlimitedNameTags plugin, @NotNull CommandSender audience, @NotNull String text) {
-        return formatter.apply(plugin, audience, text);
+        return format(plugin, audience, text, true);
+    }
+
+    /**
+     * Apply formatting to a string
+     *
+     * @param text      the string to format
+     * @param cacheable whether the output can be cached, false for text that is unlikely to be formatted again like animation frames
+     * @return the formatted string
+     */
+    public Component format(@NotNull UnlimitedNameTags plugin, @NotNull CommandSender audience, @NotNull String text,
+                            boolean cacheable) {
+        if (!cacheable || audienceDependent && plugin.getHook(MiniPlaceholdersHook.class).isPresent()) {
+            return formatter.apply(plugin, audience, text);
+        }
+
+        final Component cached = cache.getIfPresent(text);
+        if (cached != null) {
+            return cached;
+        }
+        final Component component = formatter.apply(plugin, audience, text);
+        cache.put(text, component);
+        return component;
+    }
+
+    /**
+     * Hit and miss counters of the output cache
+     *
+     * @return the cache statistics
+     */
+    @NotNull
+    public CacheStats getCacheStats() {
+        return cache.stats();
     }
 
 }
@@ -39,6 +39,66 @@ public class Settings {
 
     private int taskInterval = 20;
 
+    @Comment({"Ticks between two frames of the animated lines (#phase-md#, #phase-mm#, #phase-mm-g#), rendered between the refreshes.",
+            "Only the animated lines are rendered again, but low values still cost a render per animated nametag that often.",
+            "Set to 0, or to a value not lower than taskInterval, to advance the animations only when the nametags are refreshed."})
+    private int animationInterval = 0;
+
+    @Comment({"Where the nametags are refreshed: GLOBAL refreshes every player from a single async task,",
+            "ENTITY schedules the refresh of each player on the scheduler of the player, so that on Folia it runs on the region owning the player.",
+            "AUTO uses ENTITY on Folia and GLOBAL everywhere else."})
+    private RefreshMode refreshMode = RefreshMode.AUTO;
+
+    @Comment({"Seconds after which the nametag group of a player is resolved again, in case their permissions changed.",
+            "Groups are also resolved again on reload, on world change and when requested through the API."})
+    private int nametagGroupCacheSeconds = 5;
+
+    @Comment({"Placeholders whose value is cached for the given amount of milliseconds (without the surrounding %).",
+            "Useful for expensive placeholders that don't change often, every other placeholder is resolved on every refresh."})
+    private Map<String, Long> placeholdersCache = new LinkedHashMap<>() {{
+        put("vault_eco_balance_formatted", 1000L);
+        put("luckperms_prefix", 1000L);
+        put("luckperms_suffix", 1000L);
+    }};
+
+    @Comment("Maximum amount of cached placeholder values per player.")
+    private int placeholdersCacheMaxSize = 64;
+
+    @Comment({"Whether to resolve PlaceholderAPI placeholders on the main thread (on the player's region thread on Folia) instead of async threads.",
+            "Enable it if some of your expansions are not thread safe. Always the case when refreshMode resolves to ENTITY."})
+    private boolean papiMainThread = false;
+
+    @Comment("Maximum time in milliseconds spent resolving placeholders on the main thread every tick, the remaining ones are resolved in the next tick.")
+    private double papiTickBudget = 5;
+
+    @Comment({"Whether to resolve placeholders and send the passenger packets on virtual threads instead of the platform thread pools.",
+            "The other nametag packets are written once per tick by the packet batcher on the scheduler, this setting doesn't move them.",
+            "Requires Java 21 or newer and a restart, the platform thread pools are used as a fallback."})
+    private boolean useVirtualThreads = false;
+
+    @Comment({"Seconds between two checks that resend the passengers packet to the viewers that never received the nametag as a passenger.",
+            "Passengers are kept in sync from the packets sent by the server, so this is only a safety net. Set to 0 to disable."})
+    private int passengerRepairInterval = 0;
+
+    @Comment({"Whether viewers far from a player receive a reduced nametag, according to the tiers below."})
+    private boolean levelOfDetail = false;
+
+    @Comment({"Level of detail tiers, sorted by distance. A viewer uses the first tier whose distance (in blocks) is greater than its distance from the player,",
+            "or the last one if none is. lines is the amount of lines shown, -1 for all of them and 0 for the name of the player only.",
+            "refreshInterval is the minimum amount of ticks between two text updates, 0 to update on every refresh and -1 to never update while in the tier."})
+    private List<LodTier> levelOfDetailTiers = List.of(
+            new LodTier(16, -1, 0),
+            new LodTier(48, 1, 40),
+            new LodTier(250, 0, -1)
+    );
+
+    @Comment({"Maximum amount of nametags a player sees at the same time, the nearest ones are shown. Set to 0 to show every nametag.",
+            "Players with the unlimitednametags.cull.exempt permission are always shown and don't count towards the limit, the permission is checked on join and on reload."})
+    private int maxVisibleNametags = 0;
+
+    @Comment("Distance in blocks a hidden nametag must be closer than a shown one to replace it, to avoid nametags flickering in crowds.")
+    private double visibleNametagsHysteresis = 4;
+
     @Comment(value = {"This is opacity that will be applied to the nametag when a player sneaks. So, the value is from -128 to 127. ",
             "Similar to the background, the text rendering is discarded when it is less than 26. Defaults to -1, which represents 255 and is completely opaque."})
     private int sneakOpacity = 70;
@@ -47,7 +107,8 @@ public class Settings {
 
     @Comment("""
             Which text formatter to use (MINEDOWN, MINIMESSAGE, LEGACY or UNIVERSAL)\s
-            Take note that UNIVERSAL is the most resource intensive but it supports all formatting options. \
+            Take note that UNIVERSAL is the most resource intensive but it supports all formatting options, \
+            lines using only legacy, hex and MiniMessage syntax are translated in a single pass, MineDown syntax needs the full conversion. \
 
             (&x&0&8&4&c&f&bc LEGACY OF LEGACY - &#084cfbc LEGACY - &#084cfbc& MINEDOWN - <color:#084cfbc> MINIMESSAGE)""")
     private Formatter format = Formatter.LEGACY;
@@ -64,6 +125,15 @@ public class Settings {
     public record NameTag(String permission, List<String> lines, Background background) {
     }
 
+    public record LodTier(double distance, int lines, int refreshInterval) {
+    }
+
+    public enum RefreshMode {
+        AUTO,
+        GLOBAL,
+        ENTITY
+    }
+
 
     @Getter
     @NoArgsConstructor
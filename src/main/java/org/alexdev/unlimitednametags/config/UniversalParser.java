@@ -0,0 +1,229 @@
+package org.alexdev.unlimitednametags.config;
+
+import de.themoep.minedown.adventure.MineDown;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Single pass translation of {@link Formatter#UNIVERSAL} text into MiniMessage.
+ * Legacy codes (&amp;c, &amp;l, &amp;r), &amp;#rrggbb and &amp;x&amp;r&amp;r&amp;g&amp;g&amp;b&amp;b colors
+ * are turned into tags with legacy semantics (a color or a reset closes the styles opened by previous codes),
+ * MiniMessage tags are left untouched.
+ * Text using MineDown only syntax is not handled and must go through the full MineDown pipeline, {@link #viaMineDown(String)}.
+ */
+final class UniversalParser {
+
+    private static final String[] COLORS = {
+            "black", "dark_blue", "dark_green", "dark_aqua", "dark_red", "dark_purple", "gold", "gray",
+            "dark_gray", "blue", "green", "aqua", "red", "light_purple", "yellow", "white"
+    };
+    private static final String[] DECORATIONS = {
+            "obfuscated", "bold", "strikethrough", "underlined", "italic"
+    };
+    private static final Pattern HEX_PATTERN = Pattern.compile("&#[a-fA-F0-9]{6}");
+    private static final String LEGACY_RESET = "&r";
+    private static final String REPLACE_RESET = "###RESET###";
+    private static final LegacyComponentSerializer STUPID = LegacyComponentSerializer.builder()
+            .character('&')
+            .hexCharacter('#')
+            .useUnusualXRepeatedCharacterHexFormat()
+            .hexColors()
+            .build();
+    private static final LegacyComponentSerializer HEX = LegacyComponentSerializer.builder()
+            .character('&')
+            .hexCharacter('#')
+            .hexColors()
+            .build();
+
+    private UniversalParser() {
+    }
+
+    /**
+     * Translate the text into MiniMessage
+     *
+     * @param text the text to translate
+     * @return the MiniMessage text, or null if the text uses MineDown syntax
+     */
+    @Nullable
+    static String toMiniMessage(@NotNull String text) {
+        final int length = text.length();
+        final StringBuilder builder = new StringBuilder(length + 16);
+        final Deque<String> open = new ArrayDeque<>(4);
+
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&' -> {
+                    if (i + 1 >= length) {
+                        return null;
+                    }
+                    // &name& is a MineDown color or format when MineDown understands the name, like &blue&, otherwise a legacy code
+                    if (isMineDownName(text, i + 1)) {
+                        return null;
+                    }
+                    final char code = Character.toLowerCase(text.charAt(i + 1));
+                    final int color = Character.digit(code, 16);
+                    if (color >= 0) {
+                        openColor(builder, open, COLORS[color]);
+                        i++;
+                    } else if (code >= 'k' && code <= 'o') {
+                        open(builder, open, DECORATIONS[code - 'k']);
+                        i++;
+                    } else if (code == 'r') {
+                        closeAll(builder, open);
+                        i++;
+                    } else if (code == '#') {
+                        final int end = i + 8;
+                        if (!isHex(text, i + 2, end)) {
+                            return null;
+                        }
+                        // &#rrggbb& and &#rrggbb-#rrggbb& are MineDown colors and gradients
+                        if (end < length && (text.charAt(end) == '&' || text.charAt(end) == '-')) {
+                            return null;
+                        }
+                        openColor(builder, open, text.substring(i + 1, end).toLowerCase());
+                        i = end - 1;
+                    } else if (code == 'x') {
+                        final String hex = readRepeatedHex(text, i + 2);
+                        if (hex == null) {
+                            return null;
+                        }
+                        openColor(builder, open, hex);
+                        i += 13;
+                    } else {
+                        return null;
+                    }
+                }
+                // MineDown escapes, today's pipeline strips every backslash
+                case '\\' -> {
+                    return null;
+                }
+                // MineDown **bold**, ##obfuscated##, __underlined__, ~~strikethrough~~ and ??italic??
+                case '*', '#', '_', '~', '?' -> {
+                    if (i + 1 < length && text.charAt(i + 1) == c) {
+                        return null;
+                    }
+                    builder.append(c);
+                }
+                // MineDown [text](events)
+                case ']' -> {
+                    if (i + 1 < length && text.charAt(i + 1) == '(') {
+                        return null;
+                    }
+                    builder.append(c);
+                }
+                default -> builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Translate the text into MiniMessage through MineDown, supporting every MineDown syntax.
+     * Legacy codes are first normalized to &amp;#rrggbb&amp; colors that MineDown understands.
+     *
+     * @param text the text to translate
+     * @return the MiniMessage text
+     */
+    @NotNull
+    static String viaMineDown(@NotNull String text) {
+        text = text.replaceAll(LEGACY_RESET, REPLACE_RESET);
+        text = HEX.serialize(STUPID.deserialize(text));
+        text = replaceHexColorCodes(text);
+        text = text.replaceAll(REPLACE_RESET, LEGACY_RESET);
+        final Component component = new MineDown(text).toComponent();
+        return MiniMessage.miniMessage().serialize(component).replace("\\<", "<").replace("\\", "");
+    }
+
+    @NotNull
+    private static String replaceHexColorCodes(@NotNull String text) {
+        final Matcher matcher = HEX_PATTERN.matcher(text);
+        final StringBuilder valueBuffer = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(valueBuffer, matcher.group() + "&");
+        }
+        matcher.appendTail(valueBuffer);
+        return valueBuffer.toString();
+    }
+
+    private static boolean isMineDownName(@NotNull String text, int start) {
+        int end = start;
+        while (end < text.length() && isNameChar(text.charAt(end))) {
+            end++;
+        }
+        if (end - start < 2 || end >= text.length() || text.charAt(end) != '&') {
+            return false;
+        }
+        for (String part : text.substring(start, end).toLowerCase().split(",")) {
+            if (isHexName(part) || part.indexOf('-') >= 0 || part.indexOf('=') >= 0 || part.startsWith("rainbow")
+                    || part.equals("reset") || NamedTextColor.NAMES.value(part) != null || TextDecoration.NAMES.value(part) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHexName(@NotNull String part) {
+        return (part.length() == 4 || part.length() == 7) && part.charAt(0) == '#' && isHex(part, 1, part.length());
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '#' || c == '-' || c == ':' || c == ',' || c == '=';
+    }
+
+    private static boolean isHex(@NotNull String text, int start, int end) {
+        if (end > text.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static String readRepeatedHex(@NotNull String text, int start) {
+        if (start + 12 > text.length()) {
+            return null;
+        }
+        final StringBuilder hex = new StringBuilder(7).append('#');
+        for (int i = 0; i < 6; i++) {
+            final int index = start + i * 2;
+            final char digit = text.charAt(index + 1);
+            if (text.charAt(index) != '&' || Character.digit(digit, 16) < 0) {
+                return null;
+            }
+            hex.append(Character.toLowerCase(digit));
+        }
+        return hex.toString();
+    }
+
+    private static void openColor(@NotNull StringBuilder builder, @NotNull Deque<String> open, @NotNull String color) {
+        closeAll(builder, open);
+        open(builder, open, color);
+    }
+
+    private static void open(@NotNull StringBuilder builder, @NotNull Deque<String> open, @NotNull String tag) {
+        builder.append('<').append(tag).append('>');
+        open.push(tag);
+    }
+
+    private static void closeAll(@NotNull StringBuilder builder, @NotNull Deque<String> open) {
+        while (!open.isEmpty()) {
+            builder.append("</").append(open.pop()).append('>');
+        }
+    }
+
+}
@@ -4,26 +4,27 @@ import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.event.PacketListenerAbstract;
 import com.github.retrooper.packetevents.event.PacketReceiveEvent;
 import com.github.retrooper.packetevents.event.PacketSendEvent;
-import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.packettype.PacketType;
-import com.github.retrooper.packetevents.util.Vector3f;
 import com.github.retrooper.packetevents.wrapper.play.client.WrapperPlayClientEntityAction;
-import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerDestroyEntities;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnPlayer;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerTeams;
 import lombok.RequiredArgsConstructor;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
 import org.alexdev.unlimitednametags.packet.PacketDisplayText;
+import org.alexdev.unlimitednametags.packet.PassengerRegistry;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Arrays;
 import java.util.Optional;
 
 @RequiredArgsConstructor
 public class PacketEventsListener extends PacketListenerAbstract {
 
     private final UnlimitedNameTags plugin;
+    private final boolean trackPlayers;
 
     public void onEnable() {
         PacketEvents.getAPI().getEventManager().registerListener(this);
@@ -34,8 +35,36 @@ public class PacketEventsListener extends PacketListenerAbstract {
             handleTeams(event);
         } else if (event.getPacketType() == PacketType.Play.Server.SET_PASSENGERS) {
             handlePassengers(event);
-        } else if (event.getPacketType() == PacketType.Play.Server.ENTITY_METADATA) {
-            handleMetaData(event);
+        } else if (trackPlayers && event.getPacketType() == PacketType.Play.Server.SPAWN_ENTITY) {
+            // Decoded only when it is needed for tracking, the collision check comes for free then
+            final int entityId = new WrapperPlayServerSpawnEntity(event).getEntityId();
+            plugin.getPacketManager().checkCollision(entityId);
+            handleTrack(event, entityId);
+        } else if (trackPlayers && event.getPacketType() == PacketType.Play.Server.SPAWN_PLAYER) {
+            handleTrack(event, new WrapperPlayServerSpawnPlayer(event).getEntityId());
+        } else if (trackPlayers && event.getPacketType() == PacketType.Play.Server.DESTROY_ENTITIES) {
+            handleUntrack(event);
+        }
+    }
+
+    /**
+     * On Spigot there are no track events, the players a viewer tracks are the ones the server spawns for it
+     */
+    private void handleTrack(@NotNull PacketSendEvent event, int entityId) {
+        if (!trackPlayers || !(event.getPlayer() instanceof Player viewer)) {
+            return;
+        }
+        plugin.getPlayerListener().getPlayerFromEntityId(entityId)
+                .ifPresent(target -> plugin.getTrackerManager().handleAdd(viewer, target));
+    }
+
+    private void handleUntrack(@NotNull PacketSendEvent event) {
+        if (!(event.getPlayer() instanceof Player viewer)) {
+            return;
+        }
+        for (int entityId : new WrapperPlayServerDestroyEntities(event).getEntityIds()) {
+            plugin.getPlayerListener().getPlayerFromEntityId(entityId)
+                    .ifPresent(target -> plugin.getTrackerManager().handleRemove(viewer, target));
         }
     }
 
@@ -75,7 +104,19 @@ public class PacketEventsListener extends PacketListenerAbstract {
             return;
         }
 
-        plugin.getPacketManager().setPassengers(player.get(), Arrays.stream(packet.getPassengers()).boxed().toList());
+        final PacketDisplayText display = optionalPacketDisplayText.get();
+        final int displayId = display.getEntity().getEntityId();
+        plugin.getPacketManager().setPassengers(packet.getEntityId(), packet.getPassengers(), displayId);
+
+        // Keep the nametag mounted for the viewers of the display, instead of sending it again later
+        if (!(event.getPlayer() instanceof Player viewer) || !display.canPlayerSee(viewer)) {
+            return;
+        }
+        if (!PassengerRegistry.contains(packet.getPassengers(), displayId)) {
+            packet.setPassengers(PassengerRegistry.with(packet.getPassengers(), displayId));
+            event.markForReEncode(true);
+        }
+        display.confirmPassenger(viewer.getUniqueId());
     }
 
     private void handleTeams(@NotNull PacketSendEvent event) {
@@ -90,35 +131,6 @@ public class PacketEventsListener extends PacketListenerAbstract {
         }
     }
 
-    private void handleMetaData(@NotNull PacketSendEvent event) {
-        if (!(event.getPlayer() instanceof Player player)) {
-            return;
-        }
-        int protocol = plugin.getPlayerListener().getProtocolVersion(player.getUniqueId());
-        //handle metadata for : bedrock players && client with version 1.20.1 or lower
-        if (protocol >= 764) {
-            return;
-        }
-
-        final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(event);
-        final @NotNull Optional<PacketDisplayText> textDisplay = plugin.getNametagManager().getPacketDisplayText(packet.getEntityId());
-
-        if (textDisplay.isEmpty()) {
-            return;
-        }
-
-        for (final EntityData eData : packet.getEntityMetadata()) {
-            if (eData.getIndex() == 11) {
-
-                final Vector3f old = (Vector3f) eData.getValue();
-                final Vector3f newV = new Vector3f(old.getX(), old.getY() + 0.45f, old.getZ());
-                eData.setValue(newV);
-                event.markForReEncode(true);
-                return;
-            }
-        }
-    }
-
     public void onDisable() {
         PacketEvents.getAPI().getEventManager().unregisterListener(this);
     }
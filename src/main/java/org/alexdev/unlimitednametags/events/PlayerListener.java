@@ -14,6 +14,7 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityPotionEffectEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerGameModeChangeEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
@@ -77,13 +78,15 @@ public class PlayerListener implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST)
     public void onJoin(@NotNull PlayerJoinEvent event) {
+        plugin.getNametagManager().getCrowdCuller().updateExempt(event.getPlayer());
+        plugin.getNametagManager().getPositionSnapshot().addPlayer(event.getPlayer());
         plugin.getTaskScheduler().runTaskLaterAsynchronously(() -> plugin.getNametagManager().addPlayer(event.getPlayer()), 1);
         playerEntityId.put(event.getPlayer().getEntityId(), event.getPlayer().getUniqueId());
         protocolVersion.put(event.getPlayer().getUniqueId(), getProtocolVersion(event.getPlayer()));
     }
 
     public int getProtocolVersion(@NotNull UUID player) {
-        return protocolVersion.get(player);
+        return protocolVersion.getOrDefault(player, 0);
     }
 
     private int getProtocolVersion(@NotNull Player player) {
@@ -97,6 +100,12 @@ public class PlayerListener implements Listener {
     public void onQuit(@NotNull PlayerQuitEvent event) {
         diedPlayers.remove(event.getPlayer().getUniqueId());
         plugin.getTaskScheduler().runTaskLaterAsynchronously(() -> plugin.getNametagManager().removePlayer(event.getPlayer(), true), 1);
+        plugin.getPacketManager().removeViewer(event.getPlayer().getUniqueId());
+        plugin.getPacketManager().removeVehicle(event.getPlayer().getEntityId());
+        plugin.getPacketManager().removePassenger(event.getPlayer().getEntityId());
+        plugin.getTrackerManager().removePlayer(event.getPlayer().getUniqueId());
+        plugin.getNametagManager().getPositionSnapshot().removePlayer(event.getPlayer().getUniqueId());
+        plugin.getVanishManager().invalidate(event.getPlayer());
         playerEntityId.remove(event.getPlayer().getEntityId());
         protocolVersion.remove(event.getPlayer().getUniqueId());
     }
@@ -116,7 +125,7 @@ public class PlayerListener implements Listener {
             if (event.getOldEffect() == null || event.getOldEffect().getType() != PotionEffectType.INVISIBILITY) {
                 return;
             }
-            plugin.getNametagManager().showToTrackedPlayers(player, plugin.getTrackerManager().getTrackedPlayers().get(player.getUniqueId()));
+            plugin.getNametagManager().showToTrackedPlayers(player, plugin.getTrackerManager().getTrackers(player.getUniqueId()));
 
         }
     }
@@ -124,12 +133,18 @@ public class PlayerListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onGameModeChange(@NotNull PlayerGameModeChangeEvent e) {
         if (e.getPlayer().getGameMode() == GameMode.SPECTATOR) {
-            plugin.getNametagManager().showToTrackedPlayers(e.getPlayer(), plugin.getTrackerManager().getTrackedPlayers().get(e.getPlayer().getUniqueId()));
+            plugin.getNametagManager().showToTrackedPlayers(e.getPlayer(), plugin.getTrackerManager().getTrackers(e.getPlayer().getUniqueId()));
         } else if (e.getNewGameMode() == GameMode.SPECTATOR) {
             plugin.getNametagManager().removeAllViewers(e.getPlayer());
         }
     }
 
+    @EventHandler
+    public void onWorldChange(@NotNull PlayerChangedWorldEvent event) {
+        // Permissions can be world specific
+        plugin.getNametagManager().invalidateNametag(event.getPlayer());
+    }
+
     @EventHandler
     public void onPlayerDeath(@NotNull PlayerDeathEvent event) {
         diedPlayers.add(event.getEntity().getUniqueId());
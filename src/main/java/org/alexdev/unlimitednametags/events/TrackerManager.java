@@ -1,7 +1,5 @@
 package org.alexdev.unlimitednametags.events;
 
-import com.google.common.collect.*;
-import lombok.Getter;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
 import org.alexdev.unlimitednametags.packet.PacketDisplayText;
 import org.bukkit.Bukkit;
@@ -15,12 +13,11 @@ import java.util.UUID;
 public class TrackerManager {
 
     private final UnlimitedNameTags plugin;
-    @Getter
-    private final SetMultimap<UUID, UUID> trackedPlayers;
+    private final TrackingTable trackedPlayers;
 
     public TrackerManager(UnlimitedNameTags plugin) {
         this.plugin = plugin;
-        this.trackedPlayers = Multimaps.newSetMultimap(Maps.newConcurrentMap(), Sets::newConcurrentHashSet);
+        this.trackedPlayers = new TrackingTable();
         loadTracker();
     }
 
@@ -28,11 +25,12 @@ public class TrackerManager {
     private void loadTracker() {
         final boolean isPaper = plugin.isPaper();
         Bukkit.getOnlinePlayers().forEach(player -> {
-            final Set<Player> currentTracked = (isPaper ? player.getTrackedPlayers() : player.getTrackedBy());
-            trackedPlayers.putAll(player.getUniqueId(), currentTracked
-                    .stream()
-                    .map(Player::getUniqueId)
-                    .collect(ImmutableSet.toImmutableSet()));
+            if (isPaper) {
+                player.getTrackedPlayers().forEach(target -> trackedPlayers.add(player.getUniqueId(), target.getUniqueId()));
+            } else {
+                // getTrackedBy returns the viewers of the player, the table is keyed by viewer
+                player.getTrackedBy().forEach(viewer -> trackedPlayers.add(viewer.getUniqueId(), player.getUniqueId()));
+            }
         });
     }
 
@@ -40,9 +38,34 @@ public class TrackerManager {
         trackedPlayers.clear();
     }
 
+    /**
+     * Get the players a viewer tracks
+     *
+     * @param player the viewer
+     * @return a snapshot of the tracked players
+     */
     @NotNull
     public Set<UUID> getTrackedPlayers(@NotNull UUID player) {
-        return trackedPlayers.get(player);
+        return trackedPlayers.getTracked(player);
+    }
+
+    /**
+     * Get the players tracking a player, who would see its nametag
+     *
+     * @param player the tracked player
+     * @return a snapshot of the players tracking it
+     */
+    @NotNull
+    public Set<UUID> getTrackers(@NotNull UUID player) {
+        return trackedPlayers.getTrackers(player);
+    }
+
+    public boolean isTracking(@NotNull UUID viewer, @NotNull UUID target) {
+        return trackedPlayers.isTracking(viewer, target);
+    }
+
+    public void removePlayer(@NotNull UUID player) {
+        trackedPlayers.removePlayer(player);
     }
 
     public void handleAdd(@NotNull Player player, @NotNull Player target) {
@@ -51,7 +74,11 @@ public class TrackerManager {
         }
 
         plugin.getTaskScheduler().runTaskLaterAsynchronously(() -> {
-            trackedPlayers.put(player.getUniqueId(), target.getUniqueId());
+            // Either player may have quit in the meantime, their slots would never be freed
+            if (!player.isOnline() || !target.isOnline()) {
+                return;
+            }
+            trackedPlayers.add(player.getUniqueId(), target.getUniqueId());
 
             final boolean isVanished = plugin.getVanishManager().isVanished(target);
             if (isVanished && !plugin.getVanishManager().canSee(player, target)) {
@@ -0,0 +1,185 @@
+package org.alexdev.unlimitednametags.events;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Which players track which, stored as two bitsets per player indexed by dense slots.
+ * A player gets a slot when first seen and gives it back on quit, so slots stay close to the amount of online players.
+ */
+public class TrackingTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<UUID, Integer> slots;
+    private final Deque<Integer> freeSlots;
+    private final ReadWriteLock lock;
+    private UUID[] players;
+    // tracked[viewer] has the slots of the players the viewer tracks, trackers[target] the slots of the players tracking the target
+    private BitSet[] tracked;
+    private BitSet[] trackers;
+    private int nextSlot;
+
+    public TrackingTable() {
+        this.slots = Maps.newHashMap();
+        this.freeSlots = new ArrayDeque<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.players = new UUID[INITIAL_CAPACITY];
+        this.tracked = new BitSet[INITIAL_CAPACITY];
+        this.trackers = new BitSet[INITIAL_CAPACITY];
+    }
+
+    private int getOrAssignSlot(@NotNull UUID player) {
+        final Integer slot = slots.get(player);
+        if (slot != null) {
+            return slot;
+        }
+
+        final int assigned = freeSlots.isEmpty() ? nextSlot++ : freeSlots.pop();
+        if (assigned >= players.length) {
+            final int capacity = players.length * 2;
+            players = Arrays.copyOf(players, capacity);
+            tracked = Arrays.copyOf(tracked, capacity);
+            trackers = Arrays.copyOf(trackers, capacity);
+        }
+        players[assigned] = player;
+        tracked[assigned] = new BitSet();
+        trackers[assigned] = new BitSet();
+        slots.put(player, assigned);
+        return assigned;
+    }
+
+    public void add(@NotNull UUID viewer, @NotNull UUID target) {
+        lock.writeLock().lock();
+        try {
+            final int viewerSlot = getOrAssignSlot(viewer);
+            final int targetSlot = getOrAssignSlot(target);
+            tracked[viewerSlot].set(targetSlot);
+            trackers[targetSlot].set(viewerSlot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(@NotNull UUID viewer, @NotNull UUID target) {
+        lock.writeLock().lock();
+        try {
+            final Integer viewerSlot = slots.get(viewer);
+            final Integer targetSlot = slots.get(target);
+            if (viewerSlot == null || targetSlot == null) {
+                return;
+            }
+            tracked[viewerSlot].clear(targetSlot);
+            trackers[targetSlot].clear(viewerSlot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a player from both sides of the table and free its slot
+     *
+     * @param player the player
+     */
+    public void removePlayer(@NotNull UUID player) {
+        lock.writeLock().lock();
+        try {
+            final Integer slot = slots.remove(player);
+            if (slot == null) {
+                return;
+            }
+            final BitSet tracked = this.tracked[slot];
+            for (int i = tracked.nextSetBit(0); i >= 0; i = tracked.nextSetBit(i + 1)) {
+                trackers[i].clear(slot);
+            }
+            final BitSet trackers = this.trackers[slot];
+            for (int i = trackers.nextSetBit(0); i >= 0; i = trackers.nextSetBit(i + 1)) {
+                this.tracked[i].clear(slot);
+            }
+            players[slot] = null;
+            this.tracked[slot] = null;
+            this.trackers[slot] = null;
+            freeSlots.push(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isTracking(@NotNull UUID viewer, @NotNull UUID target) {
+        lock.readLock().lock();
+        try {
+            final Integer viewerSlot = slots.get(viewer);
+            final Integer targetSlot = slots.get(target);
+            return viewerSlot != null && targetSlot != null && tracked[viewerSlot].get(targetSlot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the players a viewer tracks
+     *
+     * @param viewer the viewer
+     * @return a snapshot of the tracked players
+     */
+    @NotNull
+    public Set<UUID> getTracked(@NotNull UUID viewer) {
+        return get(viewer, true);
+    }
+
+    /**
+     * Get the players tracking a target
+     *
+     * @param target the target
+     * @return a snapshot of the players tracking the target
+     */
+    @NotNull
+    public Set<UUID> getTrackers(@NotNull UUID target) {
+        return get(target, false);
+    }
+
+    @NotNull
+    private Set<UUID> get(@NotNull UUID player, boolean tracked) {
+        lock.readLock().lock();
+        try {
+            final Integer slot = slots.get(player);
+            if (slot == null) {
+                return Set.of();
+            }
+            final BitSet bits = (tracked ? this.tracked : this.trackers)[slot];
+            final ImmutableSet.Builder<UUID> builder = ImmutableSet.builderWithExpectedSize(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                builder.add(players[i]);
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            slots.clear();
+            freeSlots.clear();
+            Arrays.fill(players, null);
+            Arrays.fill(tracked, null);
+            Arrays.fill(trackers, null);
+            nextSlot = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
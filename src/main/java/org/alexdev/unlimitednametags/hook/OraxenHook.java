@@ -13,87 +13,144 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class OraxenHook extends Hook implements Listener {
 
     private static final File ORAXEN_FOLDER = new File("plugins/Oraxen/pack/models");
+    private static final String CACHE_FILE = "oraxen-heights.cache";
+    private static final int CACHE_VERSION = 1;
 
-    private final Map<String, Double> high;
     private final JsonParser jsonParser;
+    private volatile Map<String, ModelHeight> heights;
+    private volatile Map<ModelKey, Double> index;
 
     public OraxenHook(@NotNull UnlimitedNameTags plugin) {
         super(plugin);
-        this.high = Maps.newConcurrentMap();
         this.jsonParser = new JsonParser();
+        this.heights = Map.of();
+        this.index = Map.of();
     }
 
     public double getHigh(@NotNull Player player) {
         final ItemStack helmet = player.getInventory().getHelmet();
-        if (helmet == null) {
+        if (helmet == null || !helmet.hasItemMeta()) {
             return 0;
         }
 
-        if (!helmet.hasItemMeta() || !helmet.getItemMeta().hasCustomModelData()) {
+        final ItemMeta meta = helmet.getItemMeta();
+        if (!meta.hasCustomModelData()) {
             return 0;
         }
-        final int customModelData = helmet.getItemMeta().getCustomModelData();
-        final Optional<ItemBuilder> optionalItemBuilder = findItem(customModelData, helmet.getType());
-        return optionalItemBuilder.map(itemBuilder -> getHigh(itemBuilder.getOraxenMeta().getModelName() + ".json")).orElse(0.0);
-
+        return index.getOrDefault(new ModelKey(helmet.getType(), meta.getCustomModelData()), 0d);
     }
 
-    private Optional<ItemBuilder> findItem(int customModelData, @NotNull Material material) {
-        return OraxenItems.getItems().stream()
-                .filter(item -> item.getOraxenMeta().getCustomModelData() == customModelData)
-                .filter(item -> item.getType() == material)
-                .findFirst();
+    private synchronized void reloadModels() {
+        try {
+            loadHeights();
+        } catch (Throwable e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to compute the height of the Oraxen models", e);
+        }
+        buildIndex();
     }
 
-    private double getHigh(@NotNull String model) {
-        if (high.containsKey(model)) {
-            return high.get(model);
+    private void buildIndex() {
+        final Map<String, ModelHeight> heights = this.heights;
+        final Map<ModelKey, Double> index = Maps.newHashMap();
+        for (ItemBuilder item : OraxenItems.getItems()) {
+            final Integer customModelData = item.getOraxenMeta().getCustomModelData();
+            final String modelName = item.getOraxenMeta().getModelName();
+            if (customModelData == null || modelName == null) {
+                continue;
+            }
+
+            final ModelHeight height = heights.get(modelName + ".json");
+            index.putIfAbsent(new ModelKey(item.getType(), customModelData), height == null ? -1 : height.height());
         }
-        final File file = new File(ORAXEN_FOLDER, model);
-        if (!file.exists()) {
-            return -1;
+        this.index = index;
+        plugin.getLogger().info("Indexed " + index.size() + " Oraxen models");
+    }
+
+    /**
+     * Compute the height of every model in parallel, models whose size and last modification
+     * didn't change since the last computation are read from the cache file instead
+     */
+    private void loadHeights() throws IOException {
+        if (!ORAXEN_FOLDER.isDirectory()) {
+            heights = Map.of();
+            return;
         }
 
-        final JsonObject jsonObject = parseFile(file);
-        final JsonArray elements = jsonObject.getAsJsonArray("elements");
-        if (elements.size() == 0) {
-            return -1;
+        final Path root = ORAXEN_FOLDER.toPath();
+        final List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(p -> p.toString().endsWith(".json"))
+                    .filter(Files::isRegularFile)
+                    .toList();
         }
 
-        double highest = 0;
-        for (int i = 0; i < elements.size(); i++) {
-            final JsonObject element = elements.get(i).getAsJsonObject();
-            final double to = element.getAsJsonArray("to").get(1).getAsDouble();
-            if (to > highest) {
-                highest = to;
+        final File cacheFile = new File(plugin.getDataFolder(), CACHE_FILE);
+        final Map<String, ModelHeight> cached = readCache(cacheFile);
+        final Map<String, ModelHeight> heights = files.parallelStream()
+                .map(file -> {
+                    final String model = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    final File modelFile = file.toFile();
+                    final long size = modelFile.length();
+                    final long lastModified = modelFile.lastModified();
+                    final ModelHeight old = cached.get(model);
+                    if (old != null && old.size() == size && old.lastModified() == lastModified) {
+                        return old;
+                    }
+                    return new ModelHeight(model, size, lastModified, computeHigh(modelFile));
+                })
+                .collect(Collectors.toUnmodifiableMap(ModelHeight::model, h -> h));
+
+        this.heights = heights;
+        writeCache(cacheFile, heights);
+    }
+
+    private double computeHigh(@NotNull File file) {
+        try {
+            final JsonObject jsonObject = parseFile(file);
+            final JsonArray elements = jsonObject.getAsJsonArray("elements");
+            if (elements == null || elements.size() == 0) {
+                return -1;
             }
-        }
 
-        final JsonObject display = jsonObject.getAsJsonObject("display");
-        if (!display.has("head")) {
-            return -1;
-        }
+            double highest = 0;
+            for (int i = 0; i < elements.size(); i++) {
+                final JsonObject element = elements.get(i).getAsJsonObject();
+                final double to = element.getAsJsonArray("to").get(1).getAsDouble();
+                if (to > highest) {
+                    highest = to;
+                }
+            }
 
-        final JsonObject head = display.getAsJsonObject("head");
-        final double scale = head.has("scale") ? head.getAsJsonArray("scale").get(1).getAsDouble() : 1;
-        highest *= scale;
-        final double translation = head.getAsJsonArray("translation").get(1).getAsDouble();
+            final JsonObject display = jsonObject.getAsJsonObject("display");
+            if (display == null || !display.has("head")) {
+                return -1;
+            }
 
+            final JsonObject head = display.getAsJsonObject("head");
+            final double scale = head.has("scale") ? head.getAsJsonArray("scale").get(1).getAsDouble() : 1;
+            highest *= scale;
+            final double translation = head.getAsJsonArray("translation").get(1).getAsDouble();
 
-        final double value = highest + translation;
-        high.put(model, value);
-        return value;
+            return highest + translation;
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Failed to read Oraxen model " + file + ": " + e.getMessage());
+            return -1;
+        }
     }
 
     @NotNull
@@ -105,19 +162,66 @@ public class OraxenHook extends Hook implements Listener {
         }
     }
 
+    @NotNull
+    private Map<String, ModelHeight> readCache(@NotNull File file) {
+        if (!file.exists()) {
+            return Map.of();
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CACHE_VERSION) {
+                return Map.of();
+            }
+            final int size = in.readInt();
+            final Map<String, ModelHeight> heights = Maps.newHashMapWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+                final ModelHeight height = new ModelHeight(in.readUTF(), in.readLong(), in.readLong(), in.readDouble());
+                heights.put(height.model(), height);
+            }
+            return heights;
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to read the Oraxen model cache, computing every model again: " + e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private void writeCache(@NotNull File file, @NotNull Map<String, ModelHeight> heights) {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            return;
+        }
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(heights.size());
+            for (ModelHeight height : heights.values()) {
+                out.writeUTF(height.model());
+                out.writeLong(height.size());
+                out.writeLong(height.lastModified());
+                out.writeDouble(height.height());
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to write the Oraxen model cache: " + e.getMessage());
+        }
+    }
+
     @EventHandler
-    public void onEnable(OraxenItemsLoadedEvent event) {
-        high.clear();
-        plugin.getLogger().info("Oraxen items loaded, clearing cache");
+    public void onItemsLoaded(OraxenItemsLoadedEvent event) {
+        plugin.getLogger().info("Oraxen items loaded, rebuilding model index");
+        plugin.getTaskScheduler().runTaskAsynchronously(this::reloadModels);
     }
 
     @Override
     public void onEnable() {
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        plugin.getTaskScheduler().runTaskAsynchronously(this::reloadModels);
     }
 
     @Override
     public void onDisable() {
 
     }
+
+    private record ModelKey(@NotNull Material material, int customModelData) {
+    }
+
+    private record ModelHeight(@NotNull String model, long size, long lastModified, double height) {
+    }
 }
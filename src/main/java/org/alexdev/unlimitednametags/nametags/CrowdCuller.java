@@ -0,0 +1,280 @@
+package org.alexdev.unlimitednametags.nametags;
+
+import com.github.Anon8281.universalScheduler.scheduling.tasks.MyScheduledTask;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.alexdev.unlimitednametags.config.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiPredicate;
+
+/**
+ * Limits the amount of nametags a viewer sees at the same time, keeping the nearest ones.
+ * Nametags already shown are favoured by the hysteresis distance, so that two players
+ * at about the same distance don't keep swapping.
+ * A viewer is ranked again only when its tracked players changed or when it or one of them moved
+ * by more than half the hysteresis, new nametags beyond the cap are culled as soon as they would be shown.
+ */
+public class CrowdCuller {
+
+    public static final String EXEMPT_PERMISSION = "unlimitednametags.cull.exempt";
+    private static final long INTERVAL = 10;
+    private static final double MIN_MOVEMENT = 0.5;
+
+    private final UnlimitedNameTags plugin;
+    private final NameTagManager nameTagManager;
+    private final Map<UUID, Set<UUID>> culled;
+    private final List<BiPredicate<Player, Player>> exemptions;
+    // Players with the exempt permission, read on the thread of the player on join and on reload
+    private final Set<UUID> exempt;
+    // Tracked players of each viewer when it was last ranked
+    private final Map<UUID, Set<UUID>> ranked;
+    // Viewers to rank again on the next pass
+    private final Set<UUID> dirty;
+    // Position of each player when its last significant movement was seen
+    private final Map<UUID, PositionSnapshot.Position> anchors;
+    private MyScheduledTask task;
+
+    public CrowdCuller(@NotNull UnlimitedNameTags plugin, @NotNull NameTagManager nameTagManager) {
+        this.plugin = plugin;
+        this.nameTagManager = nameTagManager;
+        this.culled = Maps.newConcurrentMap();
+        this.exemptions = new CopyOnWriteArrayList<>();
+        this.exempt = Sets.newConcurrentHashSet();
+        this.ranked = Maps.newConcurrentMap();
+        this.dirty = Sets.newConcurrentHashSet();
+        this.anchors = Maps.newConcurrentMap();
+    }
+
+    public void start() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        ranked.clear();
+        anchors.clear();
+        Bukkit.getOnlinePlayers().forEach(player -> plugin.getTaskScheduler().runTask(player, () -> updateExempt(player)));
+        if (plugin.getConfigManager().getSettings().getMaxVisibleNametags() <= 0) {
+            showAll();
+            return;
+        }
+        task = plugin.getTaskScheduler().runTaskTimerAsynchronously(this::update, INTERVAL, INTERVAL);
+    }
+
+    /**
+     * Read the exempt permission of a player, must be called on the thread owning the player
+     *
+     * @param player the player
+     */
+    public void updateExempt(@NotNull Player player) {
+        if (player.hasPermission(EXEMPT_PERMISSION)) {
+            exempt.add(player.getUniqueId());
+        } else {
+            exempt.remove(player.getUniqueId());
+        }
+    }
+
+    /**
+     * Add a rule for nametags that are always visible, like party members
+     *
+     * @param exemption tested with the viewer and the owner of the nametag
+     */
+    public void addExemption(@NotNull BiPredicate<Player, Player> exemption) {
+        exemptions.add(exemption);
+        dirty.addAll(ranked.keySet());
+    }
+
+    public void removeExemption(@NotNull BiPredicate<Player, Player> exemption) {
+        exemptions.remove(exemption);
+        dirty.addAll(ranked.keySet());
+    }
+
+    public boolean isCulled(@NotNull Player viewer, @NotNull Player owner) {
+        final Set<UUID> culled = this.culled.get(viewer.getUniqueId());
+        return culled != null && culled.contains(owner.getUniqueId());
+    }
+
+    /**
+     * Whether a nametag can be shown to a viewer that doesn't see it yet. If the viewer already sees as many
+     * nametags as the cap allows, the nametag is culled until the next pass ranks the viewer by distance.
+     *
+     * @param viewer the viewer
+     * @param owner  the owner of the nametag
+     * @return true if the nametag can be shown
+     */
+    public boolean admit(@NotNull Player viewer, @NotNull Player owner) {
+        if (isCulled(viewer, owner)) {
+            return false;
+        }
+        final int max = plugin.getConfigManager().getSettings().getMaxVisibleNametags();
+        if (max <= 0 || isExempt(viewer, owner)) {
+            return true;
+        }
+
+        final Set<UUID> culled = this.culled.getOrDefault(viewer.getUniqueId(), Set.of());
+        int visible = 0;
+        for (UUID uuid : plugin.getTrackerManager().getTrackedPlayers(viewer.getUniqueId())) {
+            if (uuid.equals(owner.getUniqueId()) || culled.contains(uuid)) {
+                continue;
+            }
+            final Player other = Bukkit.getPlayer(uuid);
+            if (other != null && !isExempt(viewer, other) && ++visible >= max) {
+                this.culled.computeIfAbsent(viewer.getUniqueId(), k -> Sets.newConcurrentHashSet()).add(owner.getUniqueId());
+                dirty.add(viewer.getUniqueId());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void removePlayer(@NotNull Player player) {
+        culled.remove(player.getUniqueId());
+        culled.values().forEach(s -> s.remove(player.getUniqueId()));
+        exempt.remove(player.getUniqueId());
+        ranked.remove(player.getUniqueId());
+        dirty.remove(player.getUniqueId());
+        anchors.remove(player.getUniqueId());
+    }
+
+    private boolean isExempt(@NotNull Player viewer, @NotNull Player owner) {
+        if (exempt.contains(owner.getUniqueId())) {
+            return true;
+        }
+        for (BiPredicate<Player, Player> exemption : exemptions) {
+            if (exemption.test(viewer, owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update() {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        final int max = settings.getMaxVisibleNametags();
+        final double hysteresis = settings.getVisibleNametagsHysteresis();
+        final Set<UUID> moved = getMoved(Math.max(MIN_MOVEMENT, hysteresis / 2));
+        for (Player viewer : Bukkit.getOnlinePlayers()) {
+            try {
+                update(viewer, max, hysteresis, moved);
+            } catch (Throwable e) {
+                plugin.getLogger().log(java.util.logging.Level.SEVERE, "Failed to update the visible nametags of " + viewer.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Players who moved by more than the threshold since their last significant movement
+     *
+     * @param threshold the distance in blocks
+     * @return the players who moved
+     */
+    @NotNull
+    private Set<UUID> getMoved(double threshold) {
+        final PositionSnapshot positions = nameTagManager.getPositionSnapshot();
+        final double thresholdSquared = threshold * threshold;
+        final Set<UUID> moved = Sets.newHashSet();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            final PositionSnapshot.Position position = positions.getPosition(player.getUniqueId());
+            if (position == null) {
+                continue;
+            }
+            final PositionSnapshot.Position anchor = anchors.get(player.getUniqueId());
+            if (anchor == null || anchor.distanceSquared(position) > thresholdSquared) {
+                anchors.put(player.getUniqueId(), position);
+                moved.add(player.getUniqueId());
+            }
+        }
+        return moved;
+    }
+
+    private void update(@NotNull Player viewer, int max, double hysteresis, @NotNull Set<UUID> moved) {
+        final UUID viewerId = viewer.getUniqueId();
+        final Set<UUID> tracked = plugin.getTrackerManager().getTrackedPlayers(viewerId);
+        final Set<UUID> culled = this.culled.computeIfAbsent(viewerId, k -> Sets.newConcurrentHashSet());
+        if (tracked.size() <= max && culled.isEmpty()) {
+            ranked.remove(viewerId);
+            return;
+        }
+        final boolean changed = dirty.remove(viewerId) || !tracked.equals(ranked.get(viewerId))
+                || moved.contains(viewerId) || !Collections.disjoint(tracked, moved);
+        if (!changed) {
+            return;
+        }
+        ranked.put(viewerId, tracked);
+
+        final PositionSnapshot positions = nameTagManager.getPositionSnapshot();
+        final List<Candidate> candidates = new ArrayList<>(tracked.size());
+        for (UUID uuid : tracked) {
+            final Player owner = Bukkit.getPlayer(uuid);
+            if (owner == null || isExempt(viewer, owner)) {
+                continue;
+            }
+            double distance = Math.sqrt(positions.distanceSquared(viewerId, uuid));
+            if (!culled.contains(uuid)) {
+                distance -= hysteresis;
+            }
+            candidates.add(new Candidate(owner, distance));
+        }
+
+        candidates.sort(Comparator.comparingDouble(Candidate::distance));
+        final Set<UUID> overCap = Sets.newHashSetWithExpectedSize(candidates.size());
+        for (int i = max; i < candidates.size(); i++) {
+            overCap.add(candidates.get(i).owner().getUniqueId());
+        }
+
+        // Hide the nametags over the cap first, so that the ones back in range are admitted
+        for (UUID uuid : overCap) {
+            if (!culled.add(uuid)) {
+                continue;
+            }
+            final Player owner = Bukkit.getPlayer(uuid);
+            if (owner != null) {
+                nameTagManager.getPacketDisplayText(owner).ifPresent(display -> display.hideFromPlayer(viewer));
+            }
+        }
+        for (UUID uuid : Set.copyOf(culled)) {
+            if (overCap.contains(uuid)) {
+                continue;
+            }
+            culled.remove(uuid);
+            final Player owner = Bukkit.getPlayer(uuid);
+            if (owner != null && tracked.contains(uuid) && canSee(viewer, owner)) {
+                nameTagManager.getPacketDisplayText(owner).ifPresent(display -> display.showToPlayer(viewer));
+            }
+        }
+    }
+
+    private boolean canSee(@NotNull Player viewer, @NotNull Player owner) {
+        return !plugin.getVanishManager().isVanished(owner) || plugin.getVanishManager().canSee(viewer, owner);
+    }
+
+    private void showAll() {
+        final Map<UUID, Set<UUID>> culled = Map.copyOf(this.culled);
+        this.culled.clear();
+        culled.forEach((viewerId, owners) -> {
+            final Player viewer = Bukkit.getPlayer(viewerId);
+            owners.forEach(uuid -> {
+                final Player owner = Bukkit.getPlayer(uuid);
+                if (viewer != null && owner != null && canSee(viewer, owner)
+                        && plugin.getTrackerManager().isTracking(viewerId, uuid)) {
+                    nameTagManager.getPacketDisplayText(owner).ifPresent(display -> display.showToPlayer(viewer));
+                }
+            });
+        });
+    }
+
+    private record Candidate(@NotNull Player owner, double distance) {
+    }
+
+}
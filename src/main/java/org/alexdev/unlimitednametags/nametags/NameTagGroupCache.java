@@ -0,0 +1,53 @@
+package org.alexdev.unlimitednametags.nametags;
+
+import com.google.common.collect.Maps;
+import org.alexdev.unlimitednametags.config.Settings;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Caches the nametag group of each player, so that their permissions are checked again only once the entry expired
+ */
+public class NameTagGroupCache {
+
+    private final Map<UUID, Entry> groups;
+
+    public NameTagGroupCache() {
+        this.groups = Maps.newConcurrentMap();
+    }
+
+    /**
+     * Get the nametag group of a player, resolving it from their permissions only if the cached one expired
+     *
+     * @param player   the player
+     * @param settings the settings holding the nametag groups
+     * @return the nametag of the player
+     */
+    @NotNull
+    public Settings.NameTag get(@NotNull Player player, @NotNull Settings settings) {
+        final long now = System.currentTimeMillis();
+        final Entry cached = groups.get(player.getUniqueId());
+        if (cached != null && cached.expiry() > now) {
+            return cached.nameTag();
+        }
+
+        final Settings.NameTag nameTag = settings.getNametag(player);
+        groups.put(player.getUniqueId(), new Entry(nameTag, now + settings.getNametagGroupCacheSeconds() * 1000L));
+        return nameTag;
+    }
+
+    public void invalidate(@NotNull UUID uuid) {
+        groups.remove(uuid);
+    }
+
+    public void clear() {
+        groups.clear();
+    }
+
+    private record Entry(@NotNull Settings.NameTag nameTag, long expiry) {
+    }
+
+}
@@ -1,7 +1,9 @@
 package org.alexdev.unlimitednametags.nametags;
 
+import com.github.Anon8281.universalScheduler.foliaScheduler.FoliaScheduler;
 import com.github.Anon8281.universalScheduler.scheduling.tasks.MyScheduledTask;
 import com.github.retrooper.packetevents.util.Vector3f;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import lombok.Getter;
@@ -9,6 +11,7 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
 import org.alexdev.unlimitednametags.config.Settings;
+import org.alexdev.unlimitednametags.hook.OraxenHook;
 import org.alexdev.unlimitednametags.packet.PacketDisplayText;
 import org.bukkit.Bukkit;
 import org.bukkit.Color;
@@ -18,6 +21,7 @@ import org.bukkit.entity.Display;
 import org.bukkit.entity.Player;
 import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -26,12 +30,22 @@ import java.util.stream.Collectors;
 @Getter
 public class NameTagManager {
 
+    private static final double VIEWER_RADIUS = 250;
+
     private final UnlimitedNameTags plugin;
     private final Map<UUID, PacketDisplayText> nameTags;
     private final Map<Integer, PacketDisplayText> entityIdToDisplay;
     private final Set<UUID> creating;
     private final Set<UUID> blocked;
+    private final NameTagGroupCache nametagGroups;
+    // Lookups of the nametag group and the time spent on them, shown in the debug command
+    private final PositionSnapshot positionSnapshot;
+    private final CrowdCuller crowdCuller;
     private MyScheduledTask task;
+    private MyScheduledTask animationTask;
+    private MyScheduledTask passengerRepairTask;
+    // Refresh and animation tasks of each player, used when refreshing on the scheduler of the player
+    private final Map<UUID, List<MyScheduledTask>> playerTasks;
 
     public NameTagManager(@NotNull UnlimitedNameTags plugin) {
         this.plugin = plugin;
@@ -39,10 +53,16 @@ public class NameTagManager {
         this.entityIdToDisplay = Maps.newConcurrentMap();
         this.creating = Sets.newConcurrentHashSet();
         this.blocked = Sets.newConcurrentHashSet();
+        this.nametagGroups = new NameTagGroupCache();
+        this.positionSnapshot = new PositionSnapshot(plugin);
+        this.crowdCuller = new CrowdCuller(plugin, this);
+        this.playerTasks = Maps.newConcurrentMap();
         this.loadAll();
     }
 
     private void loadAll() {
+        // Players are added after the first positions are sampled, so that nearby viewers are found right away
+        positionSnapshot.start();
         plugin.getTaskScheduler().runTaskLaterAsynchronously(() -> {
             Bukkit.getOnlinePlayers().forEach(this::addPlayer);
             this.startTask();
@@ -52,20 +72,96 @@ public class NameTagManager {
     private void startTask() {
         if (task != null) {
             task.cancel();
+            task = null;
+        }
+        cancelPlayerTasks();
+        if (isPerPlayerRefresh()) {
+            Bukkit.getOnlinePlayers().forEach(this::startPlayerTasks);
+        } else {
+            task = plugin.getTaskScheduler().runTaskTimerAsynchronously(
+                    () -> Bukkit.getOnlinePlayers().forEach(this::refresh),
+                    10, plugin.getConfigManager().getSettings().getTaskInterval());
         }
-        task = plugin.getTaskScheduler().runTaskTimerAsynchronously(
-                () -> Bukkit.getOnlinePlayers().forEach(this::refresh),
-                10, plugin.getConfigManager().getSettings().getTaskInterval());
 
-        // Refresh passengers
-        plugin.getTaskScheduler().runTaskTimerAsynchronously(() ->
-                        Bukkit.getOnlinePlayers().forEach(player ->
-                                getPacketDisplayText(player)
-                                        .ifPresent(PacketDisplayText::sendPassengerPacketToViewers))
-                , 20, 20 * 5L);
+        startAnimationTask();
+        startPassengerRepairTask();
+        crowdCuller.start();
+    }
+
+    private void startPassengerRepairTask() {
+        if (passengerRepairTask != null) {
+            passengerRepairTask.cancel();
+            passengerRepairTask = null;
+        }
+        final long interval = plugin.getConfigManager().getSettings().getPassengerRepairInterval() * 20L;
+        if (interval <= 0) {
+            return;
+        }
+        passengerRepairTask = plugin.getTaskScheduler().runTaskTimerAsynchronously(
+                () -> nameTags.values().forEach(PacketDisplayText::repairPassengers),
+                interval, interval);
     }
 
 
+    private void startAnimationTask() {
+        if (animationTask != null) {
+            animationTask.cancel();
+            animationTask = null;
+        }
+        final int period = plugin.getPlaceholderManager().getAnimationPeriod();
+        if (period <= 0 || isPerPlayerRefresh()) {
+            return;
+        }
+        // Only nametags with animated lines are re-rendered here, at the frame rate of their animation
+        animationTask = plugin.getTaskScheduler().runTaskTimerAsynchronously(
+                () -> Bukkit.getOnlinePlayers().forEach(this::animate),
+                period, period);
+    }
+
+    /**
+     * Whether nametags are refreshed on the scheduler of each player rather than from a single async task
+     *
+     * @return true if each player has its own refresh task
+     */
+    public boolean isPerPlayerRefresh() {
+        return switch (plugin.getConfigManager().getSettings().getRefreshMode()) {
+            case GLOBAL -> false;
+            case ENTITY -> true;
+            case AUTO -> plugin.getTaskScheduler() instanceof FoliaScheduler;
+        };
+    }
+
+    /**
+     * Schedule the refresh and animation of a player on the scheduler of the player, replacing the previous tasks.
+     * The first run is spread over the interval so that players who joined together don't refresh on the same tick.
+     *
+     * @param player the player
+     */
+    private void startPlayerTasks(@NotNull Player player) {
+        cancelPlayerTasks(player);
+        final int interval = Math.max(1, plugin.getConfigManager().getSettings().getTaskInterval());
+        final int period = plugin.getPlaceholderManager().getAnimationPeriod();
+        final long delay = 10 + Math.floorMod(player.getUniqueId().hashCode(), interval);
+        final List<MyScheduledTask> tasks = new ArrayList<>(2);
+        tasks.add(plugin.getTaskScheduler().runTaskTimer(player, () -> refresh(player), delay, interval));
+        if (period > 0) {
+            tasks.add(plugin.getTaskScheduler().runTaskTimer(player, () -> animate(player), period, period));
+        }
+        playerTasks.put(player.getUniqueId(), tasks);
+    }
+
+    private void cancelPlayerTasks(@NotNull Player player) {
+        final List<MyScheduledTask> tasks = playerTasks.remove(player.getUniqueId());
+        if (tasks != null) {
+            tasks.forEach(MyScheduledTask::cancel);
+        }
+    }
+
+    private void cancelPlayerTasks() {
+        playerTasks.values().forEach(tasks -> tasks.forEach(MyScheduledTask::cancel));
+        playerTasks.clear();
+    }
+
     public void blockPlayer(@NotNull Player player) {
         blocked.add(player.getUniqueId());
     }
@@ -74,6 +170,26 @@ public class NameTagManager {
         blocked.remove(player.getUniqueId());
     }
 
+    /**
+     * Get the nametag group of a player, resolving it from their permissions only if the cached one expired
+     *
+     * @param player the player
+     * @return the nametag of the player
+     */
+    @NotNull
+    public Settings.NameTag getNametag(@NotNull Player player) {
+        return nametagGroups.get(player, plugin.getConfigManager().getSettings());
+    }
+
+    /**
+     * Resolve the nametag group of a player again on the next refresh
+     *
+     * @param player the player
+     */
+    public void invalidateNametag(@NotNull Player player) {
+        nametagGroups.invalidate(player.getUniqueId());
+    }
+
     public void addPlayer(@NotNull Player player) {
         if (nameTags.containsKey(player.getUniqueId())) {
             return;
@@ -102,10 +218,30 @@ public class NameTagManager {
         entityIdToDisplay.put(display.getEntity().getEntityId(), display);
 
         creating.add(player.getUniqueId());
-        final Settings.NameTag nametag = plugin.getConfigManager().getSettings().getNametag(player);
+        if (isPerPlayerRefresh()) {
+            startPlayerTasks(player);
+            // The group and the helmet are read on the thread owning the player
+            plugin.getTaskScheduler().runTask(player, () -> createDisplay(player, getNametag(player), getHelmetHeight(player), display));
+            return;
+        }
+        createDisplay(player, getNametag(player), getHelmetHeight(player), display);
+    }
 
-        plugin.getPlaceholderManager().applyPlaceholders(player, nametag.lines())
-                .thenAccept(lines -> loadDisplay(player, lines, nametag, display))
+    private double getHelmetHeight(@NotNull Player player) {
+        return plugin.getHook(OraxenHook.class).map(hook -> hook.getHigh(player)).orElse(0d);
+    }
+
+    private void createDisplay(@NotNull Player player, @NotNull Settings.NameTag nametag, double helmetHeight,
+                               @NotNull PacketDisplayText display) {
+        plugin.getPlaceholderManager().applyPlaceholders(player, nametag, helmetHeight)
+                .thenAccept(lines -> {
+                    // Replaced by a refresh before running, the display still has to be set up
+                    if (lines == null) {
+                        createDisplay(player, nametag, helmetHeight, display);
+                        return;
+                    }
+                    loadDisplay(player, lines, nametag, display);
+                })
                 .exceptionally(throwable -> {
                     plugin.getLogger().log(java.util.logging.Level.SEVERE, "Failed to create nametag for " + player.getName(), throwable);
                     creating.remove(player.getUniqueId());
@@ -114,13 +250,13 @@ public class NameTagManager {
     }
 
     public void refresh(@NotNull Player player) {
-        final Settings.NameTag nametag = plugin.getConfigManager().getSettings().getNametag(player);
+        final Settings.NameTag nametag = getNametag(player);
 
         if (!nameTags.containsKey(player.getUniqueId())) {
             return;
         }
 
-        plugin.getPlaceholderManager().applyPlaceholders(player, nametag.lines())
+        plugin.getPlaceholderManager().applyPlaceholders(player, nametag, getHelmetHeight(player))
                 .thenAccept(lines -> editDisplay(player, lines, nametag))
                 .exceptionally(throwable -> {
                     plugin.getLogger().log(java.util.logging.Level.SEVERE, "Failed to edit nametag for " + player.getName(), throwable);
@@ -128,18 +264,62 @@ public class NameTagManager {
                 });
     }
 
-    private void editDisplay(@NotNull Player player, @NotNull Component component, @NotNull Settings.NameTag nameTag) {
+    private void animate(@NotNull Player player) {
+        if (!nameTags.containsKey(player.getUniqueId())) {
+            return;
+        }
+
+        final Settings.NameTag nametag = getNametag(player);
+        if (!plugin.getPlaceholderManager().isAnimated(nametag)) {
+            return;
+        }
+
+        plugin.getPlaceholderManager().applyAnimations(player, nametag).ifPresent(future -> future
+                .thenAccept(lines -> editDisplay(player, lines, nametag))
+                .exceptionally(throwable -> {
+                    plugin.getLogger().log(java.util.logging.Level.SEVERE, "Failed to animate nametag for " + player.getName(), throwable);
+                    return null;
+                }));
+    }
+
+    private void editDisplay(@NotNull Player player, @Nullable Component component, @NotNull Settings.NameTag nameTag) {
+        // A newer refresh replaced this one before it ran, that one applies the result
+        if (component == null) {
+            return;
+        }
         getPacketDisplayText(player).ifPresent(packetDisplayText -> {
             final boolean update = packetDisplayText.text(component);
             packetDisplayText.setBackgroundColor(nameTag.background().getColor());
             packetDisplayText.setShadowed(nameTag.background().shadowed());
             packetDisplayText.setSeeThrough(nameTag.background().seeThrough());
-            if (update) {
+            updateTierTexts(player, packetDisplayText);
+            // With level of detail viewers may have moved to another tier even if the text didn't change
+            if (update || plugin.getConfigManager().getSettings().isLevelOfDetail()) {
                 packetDisplayText.refresh();
             }
         });
     }
 
+    private void updateTierTexts(@NotNull Player player, @NotNull PacketDisplayText display) {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        if (!settings.isLevelOfDetail()) {
+            display.setTierTexts(null);
+            return;
+        }
+
+        final List<Settings.LodTier> tiers = settings.getLevelOfDetailTiers();
+        final Component[] texts = new Component[tiers.size()];
+        for (int i = 0; i < texts.length; i++) {
+            final int lines = tiers.get(i).lines();
+            if (lines == 0) {
+                texts[i] = Component.text(player.getName());
+            } else {
+                texts[i] = lines < 0 ? null : plugin.getPlaceholderManager().getLines(player, lines).orElse(null);
+            }
+        }
+        display.setTierTexts(texts);
+    }
+
     private void loadDisplay(@NotNull Player player, @NotNull Component component,
                              @NotNull Settings.NameTag nameTag,
                              @NotNull PacketDisplayText display) {
@@ -161,6 +341,7 @@ public class NameTagManager {
 
             display.setViewRange(plugin.getConfigManager().getSettings().getViewDistance());
 
+            updateTierTexts(player, display);
             display.refresh();
 
             handleVanish(player, display);
@@ -171,27 +352,35 @@ public class NameTagManager {
     }
 
     private void handleVanish(@NotNull Player player, PacketDisplayText display) {
-        final boolean isVanished = plugin.getVanishManager().isVanished(player);
+        final PositionSnapshot.Position position = positionSnapshot.getPosition(player.getUniqueId());
+        if (position == null) {
+            return;
+        }
+        final List<Player> candidates = positionSnapshot.getNearby(position, VIEWER_RADIUS).stream()
+                .filter(uuid -> !uuid.equals(player.getUniqueId()))
+                .map(Bukkit::getPlayer)
+                .filter(Objects::nonNull)
+                .filter(p -> !display.canPlayerSee(p))
+                .toList();
 
         //if player is vanished, hide display for all players except for who can see the player
-        Bukkit.getOnlinePlayers().stream()
-                .filter(p -> p != player)
-                .filter(p -> p.getLocation().getWorld() == player.getLocation().getWorld())
-                .filter(p -> !isVanished || plugin.getVanishManager().canSee(p, player))
-                .filter(p -> p.getLocation().distance(player.getLocation()) <= 250)
-                .filter(p -> !display.canPlayerSee(p))
-                .forEach(display::showToPlayer);
+        plugin.getVanishManager().getViewers(player, candidates).forEach(display::showToPlayer);
     }
 
 
     public void removePlayer(@NotNull Player player, boolean quit) {
+        nametagGroups.invalidate(player.getUniqueId());
+        cancelPlayerTasks(player);
+        if (quit) {
+            crowdCuller.removePlayer(player);
+            plugin.getPlaceholderManager().removePlayer(player);
+        }
         final PacketDisplayText packetDisplayText = nameTags.remove(player.getUniqueId());
         if (packetDisplayText != null) {
+            entityIdToDisplay.remove(packetDisplayText.getEntity().getEntityId());
             packetDisplayText.remove();
         }
 
-        entityIdToDisplay.remove(player.getEntityId());
-
         nameTags.forEach((uuid, display) -> {
             if (quit) {
                 display.handleQuit(player);
@@ -245,6 +434,7 @@ public class NameTagManager {
     }
 
     public void reload() {
+        nametagGroups.clear();
         final float yOffset = plugin.getConfigManager().getSettings().getYOffset();
         final float viewDistance = plugin.getConfigManager().getSettings().getViewDistance();
 
@@ -252,13 +442,20 @@ public class NameTagManager {
         plugin.getTaskScheduler().runTaskAsynchronously(() -> Bukkit.getOnlinePlayers().forEach(p -> {
             setYOffset(p, yOffset);
             setViewDistance(p, viewDistance);
-            refresh(p);
+            if (isPerPlayerRefresh()) {
+                plugin.getTaskScheduler().runTask(p, () -> refresh(p));
+            } else {
+                refresh(p);
+            }
         }));
         startTask();
     }
 
     public void debug(@NotNull CommandSender audience) {
-        final AtomicReference<Component> component = new AtomicReference<>(Component.text("Nametags:").colorIfAbsent(TextColor.color(0xFF0000)));
+        final CacheStats formatterStats = plugin.getConfigManager().getSettings().getFormat().getCacheStats();
+        final AtomicReference<Component> component = new AtomicReference<>(Component.text("Nametags (refresh queue: " + plugin.getPlaceholderManager().getQueueDepth()
+                        + ", formatter cache: " + formatterStats.hitCount() + " hits, " + formatterStats.missCount() + " misses):")
+                .colorIfAbsent(TextColor.color(0xFF0000)));
         nameTags.forEach((uuid, display) -> {
             final Player player = Bukkit.getPlayer(uuid);
 
@@ -316,18 +513,11 @@ public class NameTagManager {
 
     public void vanishPlayer(@NotNull Player player) {
         getPacketDisplayText(player).ifPresent(packetDisplayText -> {
-            final Set<UUID> viewers = new HashSet<>(packetDisplayText.getEntity().getViewers());
-            final boolean isVanished = plugin.getVanishManager().isVanished(player);
-            viewers.forEach(uuid -> {
-                final Player viewer = Bukkit.getPlayer(uuid);
-                if (viewer == null || viewer == player) {
-                    return;
-                }
-                if (isVanished && !plugin.getVanishManager().canSee(viewer, player)) {
-                    return;
-                }
-                packetDisplayText.hideFromPlayer(viewer);
-            });
+            final List<Player> viewers = packetDisplayText.getEntity().getViewers().stream()
+                    .map(Bukkit::getPlayer)
+                    .filter(viewer -> viewer != null && viewer != player)
+                    .toList();
+            plugin.getVanishManager().getViewers(player, viewers).forEach(packetDisplayText::hideFromPlayer);
         });
     }
 
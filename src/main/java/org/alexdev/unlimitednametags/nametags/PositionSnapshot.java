@@ -0,0 +1,256 @@
+package org.alexdev.unlimitednametags.nametags;
+
+import com.github.Anon8281.universalScheduler.foliaScheduler.FoliaScheduler;
+import com.github.Anon8281.universalScheduler.scheduling.tasks.MyScheduledTask;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Positions of every online player, captured once per tick so that distance checks
+ * don't have to read the player locations again for every pair of players.
+ * Players are also indexed in a grid of cells per world, for nearby player lookups. Cells are 128 blocks wide,
+ * so that a lookup at the view distance of the nametags only looks at a few cells.
+ * Positions are read on the main thread, or on the thread of each player on Folia, and a player
+ * only changes cell in the grid when it crosses a cell border.
+ */
+public class PositionSnapshot {
+
+    private static final int CELL_SHIFT = 7;
+
+    private final UnlimitedNameTags plugin;
+    private final boolean folia;
+    private final Map<UUID, Position> positions;
+    private final Map<UUID, Cells> grid;
+    // Sampling task of each player on Folia
+    private final Map<UUID, MyScheduledTask> playerTasks;
+    private MyScheduledTask task;
+
+    public PositionSnapshot(@NotNull UnlimitedNameTags plugin) {
+        this.plugin = plugin;
+        this.folia = plugin.getTaskScheduler() instanceof FoliaScheduler;
+        this.positions = Maps.newConcurrentMap();
+        this.grid = Maps.newConcurrentMap();
+        this.playerTasks = Maps.newConcurrentMap();
+    }
+
+    /**
+     * Start sampling the online players, on Folia their first positions are available from the next tick
+     */
+    public void start() {
+        stop();
+        if (folia) {
+            Bukkit.getOnlinePlayers().forEach(player -> plugin.getTaskScheduler().runTask(player, () -> addPlayer(player)));
+            return;
+        }
+        if (Bukkit.isPrimaryThread()) {
+            update();
+        }
+        task = plugin.getTaskScheduler().runTaskTimer(this::update, 1, 1);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        playerTasks.values().forEach(MyScheduledTask::cancel);
+        playerTasks.clear();
+    }
+
+    /**
+     * Sample a player that just joined, must be called on the thread owning the player
+     *
+     * @param player the player
+     */
+    public void addPlayer(@NotNull Player player) {
+        update(player);
+        if (!folia) {
+            return;
+        }
+        final MyScheduledTask previous = playerTasks.put(player.getUniqueId(),
+                plugin.getTaskScheduler().runTaskTimer(player, () -> update(player), 1, 1));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    public void removePlayer(@NotNull UUID player) {
+        final MyScheduledTask task = playerTasks.remove(player);
+        if (task != null) {
+            task.cancel();
+        }
+        final Position position = positions.remove(player);
+        if (position != null) {
+            removeFromGrid(player, position);
+        }
+    }
+
+    private void update() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player);
+        }
+    }
+
+    private void update(@NotNull Player player) {
+        final Position position = Position.of(player.getLocation());
+        final Position old = positions.put(player.getUniqueId(), position);
+        if (old != null && old.world().equals(position.world())
+                && cell(old.x()) == cell(position.x()) && cell(old.z()) == cell(position.z())) {
+            return;
+        }
+        if (old != null) {
+            removeFromGrid(player.getUniqueId(), old);
+        }
+        grid.computeIfAbsent(position.world(), w -> new Cells())
+                .add(cellKey(cell(position.x()), cell(position.z())), player.getUniqueId());
+    }
+
+    private void removeFromGrid(@NotNull UUID player, @NotNull Position position) {
+        final Cells cells = grid.get(position.world());
+        if (cells != null) {
+            cells.remove(cellKey(cell(position.x()), cell(position.z())), player);
+        }
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static long cellKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the players of the last snapshot within a radius from a position, looking only at the cells in range
+     *
+     * @param center the center of the search
+     * @param radius the radius in blocks
+     * @return the players in range, the player at the center included if it was in the snapshot
+     */
+    @NotNull
+    public List<UUID> getNearby(@NotNull Position center, double radius) {
+        final Cells cells = grid.get(center.world());
+        if (cells == null) {
+            return List.of();
+        }
+
+        final List<UUID> candidates = cells.collect(cell(center.x() - radius), cell(center.x() + radius),
+                cell(center.z() - radius), cell(center.z() + radius));
+        final double radiusSquared = radius * radius;
+        final List<UUID> nearby = new ArrayList<>(candidates.size());
+        for (UUID uuid : candidates) {
+            final Position position = positions.get(uuid);
+            if (position != null && position.distanceSquared(center) <= radiusSquared) {
+                nearby.add(uuid);
+            }
+        }
+        return nearby;
+    }
+
+    @Nullable
+    public Position getPosition(@NotNull UUID player) {
+        return positions.get(player);
+    }
+
+    /**
+     * Squared distance between two players as of the last snapshot
+     *
+     * @param first  the first player
+     * @param second the second player
+     * @return the squared distance, or {@link Double#MAX_VALUE} if they are in different worlds or not in the snapshot
+     */
+    public double distanceSquared(@NotNull UUID first, @NotNull UUID second) {
+        final Position a = positions.get(first);
+        final Position b = positions.get(second);
+        if (a == null || b == null) {
+            return Double.MAX_VALUE;
+        }
+        return a.distanceSquared(b);
+    }
+
+    /**
+     * Cells of a world keyed by their packed coordinates. Players of different regions may move at the same time on Folia,
+     * the cells are only accessed under their lock.
+     */
+    private static final class Cells {
+
+        private final Long2ObjectMap<Set<UUID>> cells = new Long2ObjectOpenHashMap<>();
+
+        private synchronized void add(long key, @NotNull UUID player) {
+            Set<UUID> players = cells.get(key);
+            if (players == null) {
+                players = Sets.newHashSet();
+                cells.put(key, players);
+            }
+            players.add(player);
+        }
+
+        private synchronized void remove(long key, @NotNull UUID player) {
+            final Set<UUID> players = cells.get(key);
+            if (players != null && players.remove(player) && players.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+
+        /**
+         * Players of the cells in range, iterating the occupied cells instead when there are fewer of them
+         */
+        @NotNull
+        private synchronized List<UUID> collect(int minX, int maxX, int minZ, int maxZ) {
+            final List<UUID> players = new ArrayList<>();
+            if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > cells.size()) {
+                for (Long2ObjectMap.Entry<Set<UUID>> entry : Long2ObjectMaps.fastIterable(cells)) {
+                    final int x = (int) (entry.getLongKey() >> 32);
+                    final int z = (int) entry.getLongKey();
+                    if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                        players.addAll(entry.getValue());
+                    }
+                }
+                return players;
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    final Set<UUID> cell = cells.get(cellKey(x, z));
+                    if (cell != null) {
+                        players.addAll(cell);
+                    }
+                }
+            }
+            return players;
+        }
+    }
+
+    public record Position(@NotNull UUID world, double x, double y, double z) {
+
+        @NotNull
+        public static Position of(@NotNull Location location) {
+            return new Position(location.getWorld().getUID(), location.getX(), location.getY(), location.getZ());
+        }
+
+        public double distanceSquared(@NotNull Position other) {
+            if (!world.equals(other.world)) {
+                return Double.MAX_VALUE;
+            }
+            final double dx = x - other.x;
+            final double dy = y - other.y;
+            final double dz = z - other.z;
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.alexdev.unlimitednametags.packet;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocates the entity ids of the nametags from the range [{@value #RANGE_START}, {@value #RANGE_END}).
+ * The server assigns ids sequentially from 0, so it would need a billion entities to reach this range.
+ * Released ids are quarantined before being reused, so that packets still in flight for the old display
+ * can't be applied to the new one.
+ */
+public class EntityIdAllocator {
+
+    public static final int RANGE_START = 1_000_000_000;
+    public static final int RANGE_END = RANGE_START + (1 << 24);
+    private static final long QUARANTINE = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicInteger next;
+    private final Queue<Released> quarantine;
+    // Allocated ids, mapped to whether they are quarantined
+    private final Map<Integer, Boolean> ids;
+
+    public EntityIdAllocator() {
+        this.next = new AtomicInteger(RANGE_START);
+        this.quarantine = new ConcurrentLinkedQueue<>();
+        this.ids = Maps.newConcurrentMap();
+    }
+
+    public int allocate() {
+        final int id = recycle();
+        ids.put(id, false);
+        return id;
+    }
+
+    private int recycle() {
+        final long now = System.nanoTime();
+        Released head;
+        while ((head = quarantine.peek()) != null && now - head.releasedAt() >= QUARANTINE) {
+            // Another thread may have taken the same id, in that case look at the new head
+            if (quarantine.remove(head)) {
+                return head.id();
+            }
+        }
+
+        final int id = next.getAndIncrement();
+        if (id >= RANGE_END || id < RANGE_START) {
+            throw new IllegalStateException("No entity ids left for nametags, " + ids.size() + " are in use");
+        }
+        return id;
+    }
+
+    public void release(int id) {
+        if (ids.replace(id, false, true)) {
+            quarantine.add(new Released(id, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Whether the id is in the range reserved to the nametags
+     *
+     * @param id the entity id
+     * @return true if the id belongs to the range
+     */
+    public static boolean isInRange(int id) {
+        return id >= RANGE_START && id < RANGE_END;
+    }
+
+    /**
+     * Whether the id is in the reserved range but was not allocated by us, meaning the server assigned it to another entity
+     *
+     * @param id the entity id
+     * @return true if the id collides with the reserved range
+     */
+    public boolean isCollision(int id) {
+        return isInRange(id) && !ids.containsKey(id);
+    }
+
+    private record Released(int id, long releasedAt) {
+    }
+
+}
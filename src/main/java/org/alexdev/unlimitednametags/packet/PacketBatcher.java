@@ -0,0 +1,142 @@
+package org.alexdev.unlimitednametags.packet;
+
+import com.github.Anon8281.universalScheduler.scheduling.tasks.MyScheduledTask;
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import com.google.common.collect.Maps;
+import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the nametag packets of every viewer and writes them once per tick with a single flush.
+ * Clients on 1.19.4 or newer receive them inside a bundle, so the whole batch is applied in the same frame.
+ */
+public class PacketBatcher {
+
+    // The client rejects bundles with more than 4096 packets
+    private static final int MAX_BUNDLE_SIZE = 4000;
+
+    private final UnlimitedNameTags plugin;
+    private final Map<UUID, Queue<Outbound>> queues;
+    private final MyScheduledTask task;
+
+    public PacketBatcher(@NotNull UnlimitedNameTags plugin) {
+        this.plugin = plugin;
+        this.queues = Maps.newConcurrentMap();
+        this.task = plugin.getTaskScheduler().runTaskTimerAsynchronously(this::flush, 1, 1);
+    }
+
+    public void queue(@NotNull UUID viewer, @NotNull PacketWrapper<?> packet) {
+        queue(viewer, user -> user.writePacket(packet));
+    }
+
+    /**
+     * Queue an already encoded packet, the batcher takes ownership of the buffer
+     *
+     * @param viewer the viewer
+     * @param buffer the encoded packet
+     */
+    public void queueEncoded(@NotNull UUID viewer, @NotNull Object buffer) {
+        queue(viewer, new Encoded(buffer));
+    }
+
+    private void queue(@NotNull UUID viewer, @NotNull Outbound packet) {
+        queues.computeIfAbsent(viewer, k -> new ConcurrentLinkedQueue<>()).add(packet);
+    }
+
+    public void remove(@NotNull UUID viewer) {
+        final Queue<Outbound> queue = queues.remove(viewer);
+        if (queue != null) {
+            release(queue);
+        }
+    }
+
+    private void release(@NotNull Queue<Outbound> queue) {
+        Outbound packet;
+        while ((packet = queue.poll()) != null) {
+            packet.release();
+        }
+    }
+
+    private void flush() {
+        queues.forEach((uuid, queue) -> {
+            if (queue.isEmpty()) {
+                return;
+            }
+
+            final Player player = Bukkit.getPlayer(uuid);
+            final User user = player == null ? null : PacketEvents.getAPI().getPlayerManager().getUser(player);
+            if (user == null || user.getChannel() == null) {
+                remove(uuid);
+                return;
+            }
+
+            try {
+                write(user, queue);
+            } catch (Throwable e) {
+                plugin.getLogger().log(java.util.logging.Level.SEVERE, "Failed to send nametag packets to " + player.getName(), e);
+            }
+        });
+    }
+
+    private void write(@NotNull User user, @NotNull Queue<Outbound> queue) {
+        final boolean bundle = user.getClientVersion().isNewerThanOrEquals(ClientVersion.V_1_19_4);
+        Outbound packet = queue.poll();
+        while (packet != null) {
+            if (bundle) {
+                user.writePacket(new WrapperPlayServerBundle());
+            }
+            int written = 0;
+            while (packet != null && (!bundle || written < MAX_BUNDLE_SIZE)) {
+                packet.write(user);
+                written++;
+                packet = queue.poll();
+            }
+            if (bundle) {
+                user.writePacket(new WrapperPlayServerBundle());
+            }
+        }
+        user.flushPackets();
+    }
+
+    public void close() {
+        task.cancel();
+        flush();
+        queues.values().forEach(this::release);
+        queues.clear();
+    }
+
+    private interface Outbound {
+
+        void write(@NotNull User user);
+
+        default void release() {
+        }
+
+    }
+
+    private record Encoded(@NotNull Object buffer) implements Outbound {
+
+        @Override
+        public void write(@NotNull User user) {
+            PacketEvents.getAPI().getProtocolManager().writePacketSilently(user.getChannel(), buffer);
+        }
+
+        @Override
+        public void release() {
+            ByteBufHelper.release(buffer);
+        }
+    }
+
+}
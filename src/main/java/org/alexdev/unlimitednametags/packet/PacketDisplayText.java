@@ -1,9 +1,15 @@
 package org.alexdev.unlimitednametags.packet;
 
 import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
 import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerDestroyEntities;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
 import lombok.Getter;
@@ -16,6 +22,8 @@ import me.tofaa.entitylib.wrapper.WrapperEntity;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.alexdev.unlimitednametags.config.Settings;
+import org.alexdev.unlimitednametags.nametags.CrowdCuller;
 import org.bukkit.Bukkit;
 import org.bukkit.Color;
 import org.bukkit.Location;
@@ -24,7 +32,12 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 
@@ -32,13 +45,24 @@ import java.util.UUID;
 public class PacketDisplayText {
 
     private static final int startId = 1000000;
+    // Clients older than 1.20.2 (bedrock players included) render the display lower, their translation is raised
+    private static final int LEGACY_PROTOCOL = 764;
+    private static final int TRANSLATION_INDEX = 11;
+    private static final float LEGACY_Y_OFFSET = 0.45f;
+    // Group of the viewers that only receive the other changed metadata
+    private static final int NO_TEXT = -2;
     private final UnlimitedNameTags plugin;
     private final WrapperEntity entity;
     private final TextDisplayMeta meta;
     private final Player owner;
     private final Set<UUID> blocked;
+    private final Map<Integer, Object> sentMetadata;
+    private final Set<UUID> passengerViewers;
+    private final Map<UUID, ViewerText> viewerTexts;
     @Nullable
     private Component lastText;
+    @Nullable
+    private Component[] tierTexts;
     private long lastUpdate;
     @Setter
     private boolean visible;
@@ -46,10 +70,13 @@ public class PacketDisplayText {
     public PacketDisplayText(@NotNull UnlimitedNameTags plugin, @NotNull Player owner) {
         this.plugin = plugin;
         this.owner = owner;
-        final int randomId = plugin.getPacketManager().getEntityIndex();
-        this.entity = EntityLib.getApi().createEntity(UUID.randomUUID(), randomId, EntityTypes.TEXT_DISPLAY);
+        final int entityId = plugin.getPacketManager().allocateEntityId();
+        this.entity = EntityLib.getApi().createEntity(UUID.randomUUID(), entityId, EntityTypes.TEXT_DISPLAY);
         this.meta = (TextDisplayMeta) entity.getEntityMeta();
         this.blocked = Sets.newConcurrentHashSet();
+        this.sentMetadata = Maps.newConcurrentMap();
+        this.passengerViewers = Sets.newConcurrentHashSet();
+        this.viewerTexts = Maps.newConcurrentMap();
         this.meta.setLineWidth(1000);
         this.meta.setNotifyAboutChanges(false);
         this.lastUpdate = System.currentTimeMillis();
@@ -66,6 +93,24 @@ public class PacketDisplayText {
         return true;
     }
 
+    /**
+     * Set the reduced texts shown to the viewers of each level of detail tier.
+     * Texts equal to the previous ones keep the previous instance, so that viewers are compared by identity on refresh.
+     *
+     * @param tierTexts the text of each tier, null entries show the full text
+     */
+    public void setTierTexts(@Nullable Component[] tierTexts) {
+        final Component[] previous = this.tierTexts;
+        if (tierTexts != null && previous != null) {
+            for (int i = 0; i < Math.min(tierTexts.length, previous.length); i++) {
+                if (previous[i] != null && previous[i].equals(tierTexts[i])) {
+                    tierTexts[i] = previous[i];
+                }
+            }
+        }
+        this.tierTexts = tierTexts;
+    }
+
     public void setBillboard(@NotNull Display.Billboard billboard) {
         meta.setBillboardConstraints(AbstractDisplayMeta.BillboardConstraints.valueOf(billboard.name()));
     }
@@ -109,8 +154,34 @@ public class PacketDisplayText {
             return;
         }
 
+        // New viewers are subject to the cap right away, not only from the next pass of the culler
+        final CrowdCuller crowdCuller = plugin.getNametagManager().getCrowdCuller();
+        if (canPlayerSee(player) ? crowdCuller.isCulled(player, owner) : !crowdCuller.admit(player, owner)) {
+            return;
+        }
+
         setPosition();
-        entity.addViewer(player.getUniqueId());
+        if (!entity.getViewers().contains(player.getUniqueId())) {
+            entity.addViewerSilently(player.getUniqueId());
+            final com.github.retrooper.packetevents.protocol.world.Location location = entity.getLocation();
+            sendPacket(player.getUniqueId(), new WrapperPlayServerSpawnEntity(entity.getEntityId(), Optional.of(entity.getUuid()),
+                    EntityTypes.TEXT_DISPLAY, location.getPosition(), location.getPitch(), location.getYaw(), location.getYaw(),
+                    0, Optional.empty()));
+            viewerTexts.remove(player.getUniqueId());
+            final List<EntityData> metadata = new ArrayList<>(meta.createPacket().getEntityMetadata());
+            final List<Settings.LodTier> tiers = getTiers();
+            final int tier = getTier(player.getUniqueId(), tiers);
+            metadata.replaceAll(data -> {
+                if (!(data.getValue() instanceof Component text)) {
+                    return data;
+                }
+                final Component tierText = getTierText(tier, text);
+                viewerTexts.put(player.getUniqueId(), new ViewerText(tierText, tier, System.currentTimeMillis()));
+                return withText(data, tierText);
+            });
+            sendPacket(player.getUniqueId(), new WrapperPlayServerEntityMetadata(entity.getEntityId(),
+                    isLegacy(player.getUniqueId()) ? toLegacy(metadata) : metadata));
+        }
 
         plugin.getTaskScheduler().runTaskLaterAsynchronously(() -> {
             sendPassengersPacket(player);
@@ -121,11 +192,26 @@ public class PacketDisplayText {
         plugin.getPacketManager().sendPassengersPacket(player, this);
     }
 
-    public void sendPassengerPacketToViewers() {
-        if(!visible) {
+    /**
+     * Mark the nametag as mounted on the owner for a viewer, called when a passengers packet with the nametag is sent
+     *
+     * @param viewer the viewer
+     */
+    public void confirmPassenger(@NotNull UUID viewer) {
+        passengerViewers.add(viewer);
+    }
+
+    /**
+     * Send the passengers packet again only to the viewers that never received the nametag as a passenger
+     */
+    public void repairPassengers() {
+        if (!visible) {
             return;
         }
         entity.getViewers().forEach(u -> {
+            if (passengerViewers.contains(u)) {
+                return;
+            }
             final Player player = Bukkit.getPlayer(u);
             if (player != null) {
                 sendPassengersPacket(player);
@@ -140,13 +226,20 @@ public class PacketDisplayText {
         entity.setLocation(SpigotConversionUtil.fromBukkitLocation(location));
     }
 
+    private void sendPacket(@NotNull UUID viewer, @NotNull PacketWrapper<?> packet) {
+        plugin.getPacketManager().sendPacket(viewer, packet);
+    }
+
     public void hideFromPlayer(@NotNull Player player) {
         if (blocked.contains(player.getUniqueId())) {
             return;
         }
-        entity.removeViewer(player.getUniqueId());
-
-        plugin.getPacketManager().removePassenger(player, entity.getEntityId());
+        passengerViewers.remove(player.getUniqueId());
+        viewerTexts.remove(player.getUniqueId());
+        if (entity.getViewers().contains(player.getUniqueId())) {
+            entity.removeViewerSilently(player.getUniqueId());
+            sendPacket(player.getUniqueId(), new WrapperPlayServerDestroyEntities(entity.getEntityId()));
+        }
     }
 
     public void clearViewers() {
@@ -166,6 +259,8 @@ public class PacketDisplayText {
         if (blocked.contains(player.getUniqueId())) {
             return;
         }
+        passengerViewers.remove(player.getUniqueId());
+        viewerTexts.remove(player.getUniqueId());
         entity.removeViewerSilently(player.getUniqueId());
     }
 
@@ -178,9 +273,142 @@ public class PacketDisplayText {
         entity.spawn(SpigotConversionUtil.fromBukkitLocation(player.getLocation()));
     }
 
-    public void refresh() {
+    /**
+     * Send the metadata entries that changed since the last refresh to the current viewers,
+     * new viewers receive the whole metadata when they are added
+     */
+    public synchronized void refresh() {
         fixViewers();
-        entity.refresh();
+        if (!entity.isSpawned()) {
+            return;
+        }
+
+        // The text is tracked per viewer, as far viewers may receive a reduced one
+        final List<EntityData> changed = new ArrayList<>();
+        EntityData text = null;
+        for (EntityData data : meta.createPacket().getEntityMetadata()) {
+            final Object value = data.getValue();
+            if (value instanceof Component) {
+                text = data;
+            } else if (!Objects.equals(sentMetadata.put(data.getIndex(), value), value)) {
+                changed.add(data);
+            }
+        }
+
+        // Viewers are grouped by tier rather than by text, every viewer of a tier receives the same text instance
+        final List<Settings.LodTier> tiers = getTiers();
+        final long now = System.currentTimeMillis();
+        final Component fullText = text == null ? null : (Component) text.getValue();
+        final Map<MetadataKey, List<UUID>> groups = new HashMap<>();
+        for (UUID viewer : entity.getViewers()) {
+            final int tier = getTier(viewer, tiers);
+            final boolean sendText = fullText != null && needsText(viewer, tier, getTierText(tier, fullText), tiers, now);
+            if (!sendText && changed.isEmpty()) {
+                continue;
+            }
+            groups.computeIfAbsent(new MetadataKey(sendText ? tier : NO_TEXT, isLegacy(viewer)), k -> new ArrayList<>()).add(viewer);
+        }
+
+        final EntityData textData = text;
+        groups.forEach((key, viewers) -> {
+            List<EntityData> metadata = changed;
+            if (key.tier() != NO_TEXT) {
+                metadata = new ArrayList<>(changed);
+                metadata.add(withText(textData, getTierText(key.tier(), fullText)));
+            }
+            final List<EntityData> packetMetadata = key.legacy() ? toLegacy(metadata) : metadata;
+            plugin.getPacketManager().sendPacket(viewers, () -> new WrapperPlayServerEntityMetadata(entity.getEntityId(), packetMetadata));
+        });
+    }
+
+    @NotNull
+    private List<Settings.LodTier> getTiers() {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        return settings.isLevelOfDetail() && tierTexts != null ? settings.getLevelOfDetailTiers() : List.of();
+    }
+
+    private int getTier(@NotNull UUID viewer, @NotNull List<Settings.LodTier> tiers) {
+        if (tiers.isEmpty()) {
+            return -1;
+        }
+        final double distance = plugin.getNametagManager().getPositionSnapshot().distanceSquared(owner.getUniqueId(), viewer);
+        for (int i = 0; i < tiers.size(); i++) {
+            final double tierDistance = tiers.get(i).distance();
+            if (distance <= tierDistance * tierDistance) {
+                return i;
+            }
+        }
+        return tiers.size() - 1;
+    }
+
+    /**
+     * Get the text shown to the viewers of a level of detail tier
+     *
+     * @param tier the tier, -1 if level of detail is disabled
+     * @param text the full text
+     * @return the reduced text of the tier, or the full text
+     */
+    @NotNull
+    private Component getTierText(int tier, @NotNull Component text) {
+        final Component[] tierTexts = this.tierTexts;
+        if (tier >= 0 && tierTexts != null && tier < tierTexts.length && tierTexts[tier] != null) {
+            return tierTexts[tier];
+        }
+        return text;
+    }
+
+    /**
+     * Whether the text of a viewer has to be updated, according to its level of detail tier.
+     * Texts are compared by identity: the full text only changes instance when it changes and the tier texts keep
+     * their instance while equal, so this doesn't walk the component tree for every viewer.
+     *
+     * @param viewer  the viewer
+     * @param tier    the tier of the viewer
+     * @param desired the text of the tier
+     * @param tiers   the enabled tiers
+     * @param now     the current time in milliseconds
+     * @return true if the text has to be sent, in which case it is recorded as sent
+     */
+    private boolean needsText(@NotNull UUID viewer, int tier, @NotNull Component desired, @NotNull List<Settings.LodTier> tiers, long now) {
+        final ViewerText sent = viewerTexts.get(viewer);
+        if (sent != null && sent.tier() == tier) {
+            if (desired == sent.text()) {
+                return false;
+            }
+            final int interval = tier >= 0 ? tiers.get(tier).refreshInterval() : 0;
+            if (interval < 0 || now - sent.time() < interval * 50L) {
+                return false;
+            }
+        } else if (sent != null && desired == sent.text()) {
+            viewerTexts.put(viewer, new ViewerText(desired, tier, sent.time()));
+            return false;
+        }
+
+        viewerTexts.put(viewer, new ViewerText(desired, tier, now));
+        return true;
+    }
+
+    @NotNull
+    private EntityData withText(@NotNull EntityData data, @NotNull Component text) {
+        return new EntityData(data.getIndex(), data.getType(), text);
+    }
+
+    private boolean isLegacy(@NotNull UUID viewer) {
+        return plugin.getPlayerListener().getProtocolVersion(viewer) < LEGACY_PROTOCOL;
+    }
+
+    @NotNull
+    private List<EntityData> toLegacy(@NotNull List<EntityData> metadata) {
+        final List<EntityData> legacy = new ArrayList<>(metadata.size());
+        for (EntityData data : metadata) {
+            if (data.getIndex() == TRANSLATION_INDEX && data.getValue() instanceof Vector3f translation) {
+                legacy.add(new EntityData(TRANSLATION_INDEX, data.getType(),
+                        new Vector3f(translation.getX(), translation.getY() + LEGACY_Y_OFFSET, translation.getZ())));
+            } else {
+                legacy.add(data);
+            }
+        }
+        return legacy;
     }
 
     private void fixViewers() {
@@ -195,13 +423,23 @@ public class PacketDisplayText {
     }
 
     public void remove() {
+        // Destroy through the batcher so that it can't overtake a spawn packet still waiting to be sent
+        final WrapperPlayServerDestroyEntities destroy = new WrapperPlayServerDestroyEntities(entity.getEntityId());
+        passengerViewers.clear();
+        viewerTexts.clear();
+        Set.copyOf(entity.getViewers()).forEach(u -> {
+            entity.removeViewerSilently(u);
+            sendPacket(u, destroy);
+        });
         entity.remove();
         plugin.getPacketManager().removePassenger(entity.getEntityId());
+        plugin.getPacketManager().releaseEntityId(entity.getEntityId());
     }
 
     public void handleQuit(@NotNull Player player) {
+        passengerViewers.remove(player.getUniqueId());
+        viewerTexts.remove(player.getUniqueId());
         entity.removeViewerSilently(player.getUniqueId());
-        plugin.getPacketManager().removePassenger(player, entity.getEntityId());
     }
 
     public void setTextOpacity(byte b) {
@@ -222,4 +460,10 @@ public class PacketDisplayText {
         );
     }
 
+    private record ViewerText(@NotNull Component text, int tier, long time) {
+    }
+
+    private record MetadataKey(int tier, boolean legacy) {
+    }
+
 }
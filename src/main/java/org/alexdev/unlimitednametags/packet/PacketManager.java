@@ -1,42 +1,64 @@
 package org.alexdev.unlimitednametags.packet;
 
 import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Sets;
 import me.tofaa.entitylib.APIConfig;
 import me.tofaa.entitylib.EntityLib;
 import me.tofaa.entitylib.spigot.SpigotEntityLibPlatform;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.alexdev.unlimitednametags.utils.VirtualThreads;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class PacketManager {
 
     private final UnlimitedNameTags plugin;
-    private final Multimap<UUID, Integer> passengers;
+    private final PassengerRegistry passengers;
     private final ExecutorService executorService;
-    private int entityIndex;
+    private final PacketBatcher packetBatcher;
+    private final EntityIdAllocator entityIdAllocator;
+    private final AtomicBoolean collisionWarned;
 
     public PacketManager(@NotNull UnlimitedNameTags plugin) {
         this.plugin = plugin;
         this.initialize();
-        this.passengers = (Multimaps.newSetMultimap(Maps.newConcurrentMap(), Sets::newConcurrentHashSet)); //Multimaps.synchronizedMultimap
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.passengers = new PassengerRegistry();
+        this.entityIdAllocator = new EntityIdAllocator();
+        this.collisionWarned = new AtomicBoolean();
+        this.executorService = createExecutor();
+        this.packetBatcher = new PacketBatcher(plugin);
+    }
+
+    @NotNull
+    private ExecutorService createExecutor() {
+        if (plugin.getConfigManager().getSettings().isUseVirtualThreads()) {
+            final Optional<ExecutorService> virtual = VirtualThreads.newVirtualThreadPerTaskExecutor("UnlimitedNameTags-PacketManager: ");
+            if (virtual.isPresent()) {
+                return virtual.get();
+            }
+            plugin.getLogger().warning("Virtual threads are not available on this Java version, using platform threads for packets");
+        }
+        return Executors.newFixedThreadPool(4);
     }
 
     private void initialize() {
-        entityIndex = 1_000_000_000;
-        final int random = (int) (Math.random() * 1000000);
-        entityIndex += random;
         final SpigotEntityLibPlatform platform = new SpigotEntityLibPlatform(plugin);
         final APIConfig settings = new APIConfig(PacketEvents.getAPI())
                 .usePlatformLogger();
@@ -45,37 +67,100 @@ public class PacketManager {
     }
 
     public void close() {
+        this.packetBatcher.close();
         this.executorService.shutdown();
     }
 
-    public void setPassengers(@NotNull Player player, @NotNull Collection<Integer> passengers) {
-        plugin.getTaskScheduler().runTaskAsynchronously(() -> {
-            executorService.submit(() -> this.passengers.replaceValues(player.getUniqueId(), passengers));
+    /**
+     * Queue a packet for a viewer, it is sent with the other nametag packets of the viewer on the next tick
+     *
+     * @param viewer the viewer
+     * @param packet the packet
+     */
+    public void sendPacket(@NotNull UUID viewer, @NotNull PacketWrapper<?> packet) {
+        packetBatcher.queue(viewer, packet);
+    }
+
+    /**
+     * Queue the same packet for many viewers, encoding it only once per client version.
+     * Every viewer gets a retained duplicate of the encoded buffer, so the packet listeners are not called.
+     *
+     * @param viewers the viewers
+     * @param packet  creates the packet, called once per client version
+     */
+    public void sendPacket(@NotNull Collection<UUID> viewers, @NotNull Supplier<PacketWrapper<?>> packet) {
+        final Map<ClientVersion, List<User>> versions = Maps.newHashMap();
+        for (UUID viewer : viewers) {
+            final Player player = Bukkit.getPlayer(viewer);
+            final User user = player == null ? null : PacketEvents.getAPI().getPlayerManager().getUser(player);
+            if (user == null || user.getChannel() == null) {
+                continue;
+            }
+            versions.computeIfAbsent(user.getClientVersion(), v -> new ArrayList<>()).add(user);
+        }
+
+        versions.forEach((version, users) -> {
+            final PacketWrapper<?> wrapper = packet.get();
+            wrapper.prepareForSend(users.get(0).getChannel(), true);
+            final Object buffer = wrapper.getBuffer();
+            try {
+                users.forEach(user -> packetBatcher.queueEncoded(user.getUUID(), ByteBufHelper.retainedDuplicate(buffer)));
+            } finally {
+                ByteBufHelper.release(buffer);
+            }
         });
     }
 
+    public void removeViewer(@NotNull UUID viewer) {
+        packetBatcher.remove(viewer);
+    }
+
+    /**
+     * Store the passengers of a vehicle as sent by the server
+     *
+     * @param vehicle    the entity id of the vehicle
+     * @param passengers the passengers in the packet
+     * @param display    the entity id of the nametag of the vehicle, it is not stored as it is added on send
+     */
+    public void setPassengers(int vehicle, int @NotNull [] passengers, int display) {
+        this.passengers.set(vehicle, PassengerRegistry.without(passengers, display));
+    }
+
     public void sendPassengersPacket(@NotNull Player player, @NotNull PacketDisplayText packetDisplayText) {
         final int entityId = packetDisplayText.getEntity().getEntityId();
         final int ownerId = packetDisplayText.getOwner().getEntityId();
         executorService.submit(() -> {
-            final Set<Integer> passengers = Sets.newHashSet(this.passengers.get(packetDisplayText.getOwner().getUniqueId()));
-            passengers.add(entityId);
-            final int[] passengersArray = passengers.stream().mapToInt(i -> i).toArray();
-            final WrapperPlayServerSetPassengers packet = new WrapperPlayServerSetPassengers(ownerId, passengersArray);
-            PacketEvents.getAPI().getPlayerManager().sendPacket(player, packet);
+            final int[] passengers = PassengerRegistry.with(this.passengers.get(ownerId), entityId);
+            sendPacket(player.getUniqueId(), new WrapperPlayServerSetPassengers(ownerId, passengers));
         });
     }
 
-    public void removePassenger(@NotNull Player player, int passenger) {
-        executorService.submit(() -> this.passengers.remove(player.getUniqueId(), passenger));
+    public int allocateEntityId() {
+        return entityIdAllocator.allocate();
+    }
+
+    public void releaseEntityId(int entityId) {
+        entityIdAllocator.release(entityId);
     }
 
-    public synchronized int getEntityIndex() {
-        return this.entityIndex++;
+    /**
+     * Warn once if the server spawned an entity whose id is in the range reserved to the nametags
+     *
+     * @param entityId the id of the spawned entity
+     */
+    public void checkCollision(int entityId) {
+        if (entityIdAllocator.isCollision(entityId) && collisionWarned.compareAndSet(false, true)) {
+            plugin.getLogger().warning("The server spawned an entity with id " + entityId + ", which is in the range reserved to nametags ("
+                    + EntityIdAllocator.RANGE_START + "-" + EntityIdAllocator.RANGE_END + "), nametags may be displayed incorrectly");
+        }
     }
 
     public void removePassenger(int passenger) {
-        this.passengers.values().remove(passenger);
+        this.passengers.removePassenger(passenger);
+    }
+
+    public void removeVehicle(int vehicle) {
+        this.passengers.removeVehicle(vehicle);
     }
 
 }
@@ -0,0 +1,110 @@
+package org.alexdev.unlimitednametags.packet;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Passengers of every vehicle, keyed by the entity id of the vehicle.
+ * The passenger arrays are never modified once published, so readers only hold the lock for the lookup and never copy them.
+ * Writers update the passengers and the reverse index under the same lock, so the two never disagree.
+ * Both maps are keyed by primitive entity ids, as they are read and written for every passengers packet on the Netty threads.
+ */
+public class PassengerRegistry {
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final int NO_VEHICLE = Integer.MIN_VALUE;
+
+    private final Int2ObjectMap<int[]> passengers;
+    private final Int2IntMap vehicles;
+
+    public PassengerRegistry() {
+        this.passengers = new Int2ObjectOpenHashMap<>();
+        this.passengers.defaultReturnValue(EMPTY);
+        this.vehicles = new Int2IntOpenHashMap();
+        this.vehicles.defaultReturnValue(NO_VEHICLE);
+    }
+
+    /**
+     * Get the passengers of a vehicle, the returned array must not be modified
+     *
+     * @param vehicle the entity id of the vehicle
+     * @return the passengers, empty if none
+     */
+    public synchronized int @NotNull [] get(int vehicle) {
+        return passengers.get(vehicle);
+    }
+
+    public synchronized void set(int vehicle, int @NotNull [] passengers) {
+        final int[] copy = passengers.length == 0 ? EMPTY : passengers.clone();
+        final int[] old = copy.length == 0 ? this.passengers.remove(vehicle) : this.passengers.put(vehicle, copy);
+        for (int passenger : old) {
+            vehicles.remove(passenger, vehicle);
+        }
+        for (int passenger : copy) {
+            // A passenger riding another vehicle left it, as an entity rides one vehicle at a time
+            final int previous = vehicles.put(passenger, vehicle);
+            if (previous != NO_VEHICLE && previous != vehicle) {
+                leave(previous, passenger);
+            }
+        }
+    }
+
+    /**
+     * Remove a passenger from the vehicle it is riding
+     *
+     * @param passenger the entity id of the passenger
+     */
+    public synchronized void removePassenger(int passenger) {
+        final int vehicle = vehicles.remove(passenger);
+        if (vehicle != NO_VEHICLE) {
+            leave(vehicle, passenger);
+        }
+    }
+
+    public synchronized void removeVehicle(int vehicle) {
+        for (int passenger : passengers.remove(vehicle)) {
+            vehicles.remove(passenger, vehicle);
+        }
+    }
+
+    private void leave(int vehicle, int passenger) {
+        final int[] updated = without(passengers.get(vehicle), passenger);
+        if (updated.length == 0) {
+            passengers.remove(vehicle);
+        } else {
+            passengers.put(vehicle, updated);
+        }
+    }
+
+    public static boolean contains(int @NotNull [] passengers, int passenger) {
+        for (int p : passengers) {
+            if (p == passenger) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static int @NotNull [] with(int @NotNull [] passengers, int passenger) {
+        if (contains(passengers, passenger)) {
+            return passengers;
+        }
+        final int[] updated = Arrays.copyOf(passengers, passengers.length + 1);
+        updated[passengers.length] = passenger;
+        return updated;
+    }
+
+    public static int @NotNull [] without(int @NotNull [] passengers, int passenger) {
+        if (!contains(passengers, passenger)) {
+            return passengers;
+        }
+        return Arrays.stream(passengers).filter(p -> p != passenger).toArray();
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Derives the value of every {@link Phase} from a single monotonic tick clock,
+ * so no timer has to run to keep the animations going.
+ */
+public class AnimationClock {
+
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final int MAX_MINEDOWN_PHASE = 16777215;
+    private static final int MAX_MINIMESSAGE_PHASE = 10;
+    private static final int MIN_MINIMESSAGE_PHASE = 2;
+    private static final String[] GRADIENT_PHASES = createGradientPhases();
+
+    private final long start;
+
+    public AnimationClock() {
+        this.start = System.nanoTime();
+    }
+
+    // -1, -0.9, ..., 0, ..., 0.9, the gradient phase wraps around before reaching 1
+    @NotNull
+    private static String[] createGradientPhases() {
+        final String[] phases = new String[20];
+        for (int i = 0; i < phases.length; i++) {
+            final int tenths = i - 10;
+            final int abs = Math.abs(tenths);
+            phases[i] = (tenths < 0 ? "-" : "") + abs / 10 + (abs % 10 == 0 ? "" : "." + abs % 10);
+        }
+        return phases;
+    }
+
+    public long getTick() {
+        return (System.nanoTime() - start) / TICK_NANOS;
+    }
+
+    /**
+     * Value of a phase at the given tick
+     *
+     * @param phase the phase
+     * @param tick  the tick, from {@link #getTick()}
+     * @return the value to put in place of the phase token
+     */
+    @NotNull
+    public String getPhase(@NotNull Phase phase, long tick) {
+        final long frame = tick / phase.getFramePeriod();
+        return switch (phase) {
+            case MINEDOWN -> String.valueOf(MAX_MINEDOWN_PHASE - frame % MAX_MINEDOWN_PHASE);
+            case MINIMESSAGE -> Long.toString(MAX_MINIMESSAGE_PHASE - frame % (MAX_MINIMESSAGE_PHASE - MIN_MINIMESSAGE_PHASE + 1));
+            case MINIMESSAGE_GRADIENT -> GRADIENT_PHASES[(int) (frame % GRADIENT_PHASES.length)];
+        };
+    }
+
+}
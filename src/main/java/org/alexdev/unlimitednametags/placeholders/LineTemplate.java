@@ -0,0 +1,176 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A nametag line compiled into static text, PlaceholderAPI slots and phase slots.
+ * A refresh only has to fill the slots, the static text is never scanned again.
+ */
+public final class LineTemplate {
+
+    private static final int EMPTY_PLACEHOLDER = -2;
+
+    @Getter
+    private final String raw;
+    private final Segment[] segments;
+    @Getter
+    private final boolean animated;
+    @Getter
+    private final List<String> placeholders;
+    /**
+     * Amount of ticks between two frames of the line, 0 if the line is not animated
+     */
+    @Getter
+    private final int framePeriod;
+    private final int length;
+
+    private LineTemplate(@NotNull String raw, @NotNull List<Segment> segments) {
+        this.raw = raw;
+        this.segments = segments.toArray(Segment[]::new);
+        this.animated = segments.stream().anyMatch(s -> s.type == SegmentType.PHASE);
+        this.placeholders = segments.stream()
+                .filter(s -> s.type == SegmentType.PLACEHOLDER)
+                .map(Segment::value)
+                .distinct()
+                .toList();
+        this.framePeriod = segments.stream()
+                .filter(s -> s.type == SegmentType.PHASE)
+                .mapToInt(s -> s.phase.getFramePeriod())
+                .min()
+                .orElse(0);
+        this.length = segments.stream().mapToInt(s -> s.value.length()).sum();
+    }
+
+    /**
+     * Compile a line of the config into a template
+     *
+     * @param line the raw line
+     * @return the compiled template
+     */
+    @NotNull
+    public static LineTemplate compile(@NotNull String line) {
+        final List<Segment> segments = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < line.length()) {
+            final char c = line.charAt(i);
+            if (c == '%') {
+                final int end = findPlaceholderEnd(line, i);
+                if (end > 0) {
+                    flush(text, segments);
+                    segments.add(new Segment(SegmentType.PLACEHOLDER, line.substring(i, end + 1), null));
+                    i = end + 1;
+                    continue;
+                }
+                // %% is consumed as a whole by PlaceholderAPI, the second % never opens a placeholder
+                if (end == EMPTY_PLACEHOLDER) {
+                    text.append("%%");
+                    i += 2;
+                    continue;
+                }
+            } else if (c == '#') {
+                final Phase phase = Phase.match(line, i);
+                if (phase != null) {
+                    flush(text, segments);
+                    segments.add(new Segment(SegmentType.PHASE, phase.getToken(), phase));
+                    i += phase.getToken().length();
+                    continue;
+                }
+            }
+            text.append(c);
+            i++;
+        }
+        flush(text, segments);
+        return new LineTemplate(line, segments);
+    }
+
+    /**
+     * Find the closing % of a placeholder the way PlaceholderAPI does: the identifier, before the first '_',
+     * can't contain a space, everything up to the next % belongs to the placeholder. Text that is not
+     * a placeholder is left verbatim by PlaceholderAPI, so it is kept as text here.
+     *
+     * @param line  the line
+     * @param start the index of the opening %
+     * @return the index of the closing %, {@link #EMPTY_PLACEHOLDER} for %%, or -1 if this is not a placeholder
+     */
+    private static int findPlaceholderEnd(@NotNull String line, int start) {
+        boolean identified = false;
+        for (int i = start + 1; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '%') {
+                return i == start + 1 ? EMPTY_PLACEHOLDER : i;
+            }
+            if (c == ' ' && !identified) {
+                return -1;
+            }
+            if (c == '_') {
+                identified = true;
+            }
+        }
+        return -1;
+    }
+
+    private static void flush(@NotNull StringBuilder text, @NotNull List<Segment> segments) {
+        if (text.isEmpty()) {
+            return;
+        }
+        segments.add(new Segment(SegmentType.TEXT, text.toString(), null));
+        text.setLength(0);
+    }
+
+    /**
+     * Whether the line contains PlaceholderAPI placeholders
+     *
+     * @return true if the line has at least one placeholder slot
+     */
+    public boolean hasPlaceholders() {
+        return !placeholders.isEmpty();
+    }
+
+    /**
+     * Whether the line has neither placeholders nor phases
+     *
+     * @return true if the line never changes
+     */
+    public boolean isStatic() {
+        return !hasPlaceholders() && !animated;
+    }
+
+    /**
+     * Fill the slots of the template
+     *
+     * @param placeholders resolves a placeholder, including the surrounding '%'
+     * @param phases       the current value of each phase
+     * @return the resulting line
+     */
+    @NotNull
+    public String apply(@NotNull Function<String, String> placeholders, @NotNull Function<Phase, String> phases) {
+        if (isStatic()) {
+            return raw;
+        }
+        final StringBuilder builder = new StringBuilder(length + 16);
+        for (Segment segment : segments) {
+            switch (segment.type) {
+                case TEXT -> builder.append(segment.value);
+                case PLACEHOLDER -> builder.append(Phase.replaceAll(placeholders.apply(segment.value), phases));
+                case PHASE -> builder.append(phases.apply(segment.phase));
+            }
+        }
+        return builder.toString();
+    }
+
+    private enum SegmentType {
+        TEXT,
+        PLACEHOLDER,
+        PHASE
+    }
+
+    private record Segment(@NotNull SegmentType type, @NotNull String value, Phase phase) {
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import com.github.Anon8281.universalScheduler.foliaScheduler.FoliaScheduler;
+import com.github.Anon8281.universalScheduler.scheduling.tasks.MyScheduledTask;
+import com.google.common.collect.Maps;
+import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the placeholders of every player in one batch on the main thread, or on the player's region thread on Folia.
+ * Each tick spends at most the configured budget, leftover work is carried over to the next tick.
+ * On Folia the requests of a region run as separate tasks, so the budget is shared by every request
+ * running on the same region thread within one tick.
+ */
+public class PAPIBatchEvaluator {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final UnlimitedNameTags plugin;
+    private final PAPIManager papiManager;
+    private final Queue<Request> queue;
+    private final boolean folia;
+    private final ThreadLocal<Window> windows;
+    private volatile MyScheduledTask task;
+    private long budget;
+
+    public PAPIBatchEvaluator(@NotNull UnlimitedNameTags plugin, @NotNull PAPIManager papiManager) {
+        this.plugin = plugin;
+        this.papiManager = papiManager;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.folia = plugin.getTaskScheduler() instanceof FoliaScheduler;
+        this.windows = ThreadLocal.withInitial(Window::new);
+    }
+
+    /**
+     * Apply the settings, the main thread task only runs while the batch path is in use
+     *
+     * @param enabled whether placeholders are resolved through this evaluator
+     */
+    public void reload(boolean enabled) {
+        budget = (long) (plugin.getConfigManager().getSettings().getPapiTickBudget() * 1_000_000);
+        if (!enabled) {
+            close();
+        } else if (!folia && task == null) {
+            task = plugin.getTaskScheduler().runTaskTimer(this::tick, 1, 1);
+        }
+    }
+
+    public void close() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        completeQueued();
+    }
+
+    private void completeQueued() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.complete();
+        }
+    }
+
+    /**
+     * Queue the placeholders of a player for resolution
+     *
+     * @param player       the player
+     * @param placeholders the placeholders, including the surrounding '%'
+     * @return the resolved values, keyed by placeholder
+     */
+    @NotNull
+    public CompletableFuture<Map<String, String>> resolve(@NotNull Player player, @NotNull List<String> placeholders) {
+        final Request request = new Request(player, placeholders);
+        if (placeholders.isEmpty()) {
+            request.complete();
+        } else if (folia) {
+            plugin.getTaskScheduler().runTask(player, () -> process(request));
+        } else {
+            queue.add(request);
+            // Queued right as a reload turned the batch path off, no task will pick it up
+            if (task == null) {
+                completeQueued();
+            }
+        }
+        return request.future;
+    }
+
+    private void tick() {
+        final long deadline = System.nanoTime() + budget;
+        Request request;
+        while ((request = queue.peek()) != null) {
+            if (!request.resolve(deadline)) {
+                return;
+            }
+            queue.poll();
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+        }
+    }
+
+    private void process(@NotNull Request request) {
+        final Window window = windows.get();
+        final long now = System.nanoTime();
+        if (now - window.start >= TICK) {
+            window.start = now;
+            window.deadline = now + budget;
+        }
+        // The budget of this tick was spent by the other requests of the region, the first request of the next tick always progresses
+        if (now >= window.deadline || !request.resolve(window.deadline)) {
+            plugin.getTaskScheduler().runTaskLater(request.player, () -> process(request), 1);
+        }
+    }
+
+    /**
+     * Budget of the tick running on a region thread
+     */
+    private static final class Window {
+        private long start = System.nanoTime() - TICK;
+        private long deadline;
+    }
+
+    private final class Request {
+
+        private final Player player;
+        private final List<String> placeholders;
+        private final Map<String, String> values;
+        private final CompletableFuture<Map<String, String>> future;
+        private int index;
+
+        private Request(@NotNull Player player, @NotNull List<String> placeholders) {
+            this.player = player;
+            this.placeholders = placeholders;
+            this.values = Maps.newHashMapWithExpectedSize(placeholders.size());
+            this.future = new CompletableFuture<>();
+        }
+
+        /**
+         * Resolve placeholders until the deadline, at least one is always resolved to guarantee progress
+         *
+         * @param deadline the {@link System#nanoTime()} deadline
+         * @return true if the request is complete
+         */
+        private boolean resolve(long deadline) {
+            if (!player.isOnline()) {
+                complete();
+                return true;
+            }
+            do {
+                final String placeholder = placeholders.get(index++);
+                values.put(placeholder, papiManager.setPlaceholders(player, placeholder));
+            } while (index < placeholders.size() && System.nanoTime() < deadline);
+
+            if (index < placeholders.size()) {
+                return false;
+            }
+            complete();
+            return true;
+        }
+
+        private void complete() {
+            future.complete(values);
+        }
+    }
+
+}
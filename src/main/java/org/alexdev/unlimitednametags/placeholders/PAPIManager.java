@@ -1,15 +1,37 @@
 package org.alexdev.unlimitednametags.placeholders;
 
-import lombok.RequiredArgsConstructor;
+import com.google.common.collect.Maps;
 import me.clip.placeholderapi.PlaceholderAPI;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
+import org.alexdev.unlimitednametags.config.Settings;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
-@RequiredArgsConstructor
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
 public class PAPIManager {
 
     private final UnlimitedNameTags plugin;
+    private final Map<UUID, Map<String, CachedValue>> cache;
+    private Map<String, Long> ttls;
+    private int maxSize;
+
+    public PAPIManager(@NotNull UnlimitedNameTags plugin) {
+        this.plugin = plugin;
+        this.cache = Maps.newConcurrentMap();
+        this.ttls = Map.of();
+    }
+
+    public void reload() {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        ttls = settings.getPlaceholdersCache().entrySet().stream()
+                .filter(e -> e.getValue() != null && e.getValue() > 0)
+                .collect(Collectors.toUnmodifiableMap(e -> "%" + e.getKey().replace("%", "") + "%", Map.Entry::getValue, (a, b) -> a));
+        maxSize = settings.getPlaceholdersCacheMaxSize();
+        cache.clear();
+    }
 
     public boolean isPAPIEnabled() {
         return plugin.getServer().getPluginManager().isPluginEnabled("PlaceholderAPI");
@@ -17,7 +39,30 @@ public class PAPIManager {
 
     @NotNull
     public String setPlaceholders(Player player, String text) {
-        return PlaceholderAPI.setPlaceholders(player, text);
+        final Long ttl = ttls.get(text);
+        if (ttl == null || !player.isOnline()) {
+            return PlaceholderAPI.setPlaceholders(player, text);
+        }
+
+        final Map<String, CachedValue> values = cache.computeIfAbsent(player.getUniqueId(), u -> Maps.newConcurrentMap());
+        final long now = System.currentTimeMillis();
+        final CachedValue cached = values.get(text);
+        if (cached != null && cached.expiry() > now) {
+            return cached.value();
+        }
+
+        final String value = PlaceholderAPI.setPlaceholders(player, text);
+        if (cached != null || values.size() < maxSize) {
+            values.put(text, new CachedValue(value, now + ttl));
+        }
+        return value;
+    }
+
+    public void removePlayer(@NotNull UUID player) {
+        cache.remove(player);
+    }
+
+    private record CachedValue(@NotNull String value, long expiry) {
     }
 
 }
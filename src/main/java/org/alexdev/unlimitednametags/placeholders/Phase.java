@@ -0,0 +1,71 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * Animation phases that can be used inside nametag lines
+ */
+@Getter
+public enum Phase {
+
+    MINEDOWN("#phase-md#", 1),
+    MINIMESSAGE("#phase-mm#", 2),
+    MINIMESSAGE_GRADIENT("#phase-mm-g#", 2);
+
+    private static final Phase[] VALUES = values();
+    private static final String PREFIX = "#phase-";
+
+    private final String token;
+    /**
+     * Amount of ticks between two frames of the phase
+     */
+    private final int framePeriod;
+
+    Phase(@NotNull String token, int framePeriod) {
+        this.token = token;
+        this.framePeriod = framePeriod;
+    }
+
+    /**
+     * Find the phase whose token starts at the given position
+     *
+     * @param text  the text to look into
+     * @param index the position of the leading '#'
+     * @return the matching phase, or null if there is none
+     */
+    @Nullable
+    public static Phase match(@NotNull String text, int index) {
+        if (!text.startsWith(PREFIX, index)) {
+            return null;
+        }
+        for (Phase phase : VALUES) {
+            if (text.startsWith(phase.token, index)) {
+                return phase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace every phase token in a text that was not known at compile time, like a placeholder value
+     *
+     * @param text   the text to replace the tokens in
+     * @param phases the current value of each phase
+     * @return the text with the phase tokens replaced
+     */
+    @NotNull
+    public static String replaceAll(@NotNull String text, @NotNull Function<Phase, String> phases) {
+        if (!text.contains(PREFIX)) {
+            return text;
+        }
+        for (Phase phase : VALUES) {
+            text = text.replace(phase.token, phases.apply(phase));
+        }
+        return text;
+    }
+
+}
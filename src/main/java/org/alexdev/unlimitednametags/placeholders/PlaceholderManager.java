@@ -1,42 +1,126 @@
 package org.alexdev.unlimitednametags.placeholders;
 
+import com.google.common.collect.Maps;
+import lombok.Getter;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.JoinConfiguration;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
-import org.alexdev.unlimitednametags.hook.OraxenHook;
+import org.alexdev.unlimitednametags.config.Formatter;
+import org.alexdev.unlimitednametags.config.Settings;
+import org.alexdev.unlimitednametags.utils.VirtualThreads;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class PlaceholderManager {
 
     private static final Component EMPTY = Component.text("");
-    private static final int maxIndex = 16777215;
-    private static final int maxMIndex = 10;
-    private static final double minMGIndex = -1.0;
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
     private final UnlimitedNameTags plugin;
-    private final ExecutorService executorService;
+    private final RefreshExecutor<Component> refreshExecutor;
     private final PAPIManager papiManager;
-    private int index = maxIndex;
-    private int mmIndex = maxMIndex;
-    private double mGIndex = 1.0;
-    private DecimalFormat decimalFormat;
+    private final PAPIBatchEvaluator batchEvaluator;
+    private final Map<Settings.NameTag, CompiledNameTag> templates;
+    private final Map<UUID, RenderedNameTag> rendered;
+    private final AnimationClock clock;
+    private boolean papiEnabled;
+    @Getter
+    private int animationPeriod;
 
     public PlaceholderManager(@NotNull UnlimitedNameTags plugin) {
         this.plugin = plugin;
-        this.executorService = Executors.newCachedThreadPool(getThreadFactory());
+        this.refreshExecutor = new RefreshExecutor<>(createExecutor(), uuid -> Bukkit.getPlayer(uuid) != null);
         this.papiManager = new PAPIManager(plugin);
-        startIndexTask();
-        createDecimalFormat();
+        this.batchEvaluator = new PAPIBatchEvaluator(plugin, papiManager);
+        this.templates = Maps.newConcurrentMap();
+        this.rendered = Maps.newConcurrentMap();
+        this.clock = new AnimationClock();
+        reload();
+    }
+
+    /**
+     * Compile the lines of every configured nametag, must be called after the settings are (re)loaded
+     */
+    public void reload() {
+        papiEnabled = papiManager.isPAPIEnabled();
+        papiManager.reload();
+        batchEvaluator.reload(isBatched());
+        templates.clear();
+        rendered.clear();
+        plugin.getConfigManager().getSettings().getNameTags().values().forEach(this::getTemplates);
+        animationPeriod = getAnimationPeriod(plugin.getConfigManager().getSettings());
+    }
+
+    /**
+     * Ticks between two frames of the animated lines, never faster than the animations themselves
+     *
+     * @param settings the settings
+     * @return the period, or 0 if the animations only advance when the nametags are refreshed
+     */
+    private int getAnimationPeriod(@NotNull Settings settings) {
+        final int interval = settings.getAnimationInterval();
+        if (interval <= 0 || interval >= settings.getTaskInterval()) {
+            return 0;
+        }
+        return templates.values().stream()
+                .mapToInt(CompiledNameTag::framePeriod)
+                .filter(p -> p > 0)
+                .min()
+                .stream()
+                .map(p -> Math.max(p, interval))
+                .findFirst()
+                .orElse(0);
+    }
+
+    @NotNull
+    private CompiledNameTag getTemplates(@NotNull Settings.NameTag nameTag) {
+        return templates.computeIfAbsent(nameTag, n -> {
+            final List<LineTemplate> lines = n.lines().stream()
+                    .map(LineTemplate::compile)
+                    .toList();
+            final List<String> placeholders = lines.stream()
+                    .flatMap(l -> l.getPlaceholders().stream())
+                    .distinct()
+                    .toList();
+            final int framePeriod = lines.stream()
+                    .mapToInt(LineTemplate::getFramePeriod)
+                    .filter(p -> p > 0)
+                    .min()
+                    .orElse(0);
+            return new CompiledNameTag(lines, placeholders, framePeriod);
+        });
+    }
+
+    @NotNull
+    private ExecutorService createExecutor() {
+        if (plugin.getConfigManager().getSettings().isUseVirtualThreads()) {
+            final Optional<ExecutorService> virtual = VirtualThreads.newVirtualThreadPerTaskExecutor("UnlimitedNameTags-PlaceholderManager: ");
+            if (virtual.isPresent()) {
+                return virtual.get();
+            }
+            plugin.getLogger().warning("Virtual threads are not available on this Java version, using platform threads for placeholders");
+        }
+
+        // At most one task per player is queued here, pending refreshes are coalesced by the RefreshExecutor
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), getThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @NotNull
@@ -49,73 +133,214 @@ public class PlaceholderManager {
         };
     }
 
-    private void createDecimalFormat() {
-        decimalFormat = new DecimalFormat("#.#");
-        decimalFormat.setRoundingMode(RoundingMode.DOWN);
+    public void close() {
+        this.batchEvaluator.close();
+        this.refreshExecutor.shutdown();
     }
 
-    private void startIndexTask() {
-        plugin.getTaskScheduler().runTaskTimerAsynchronously( () -> {
-            index -= 1;
-            if (index == 0) {
-                index = 16777215;
-            }
-        }, 0, 1);
-        plugin.getTaskScheduler().runTaskTimerAsynchronously( () -> {
-            mmIndex -= 1;
-            if (mmIndex == 1) {
-                mmIndex = maxMIndex;
-            }
-        }, 0, 2);
-        plugin.getTaskScheduler().runTaskTimerAsynchronously( () -> {
-            mGIndex += 0.1;
-            if (mGIndex >= 1d) {
-                mGIndex = minMGIndex;
-            }
-        }, 0, 2);
+    /**
+     * Drop the state of a player who left, must be called after the refresh tasks of the player were cancelled
+     *
+     * @param player the player
+     */
+    public void removePlayer(@NotNull Player player) {
+        papiManager.removePlayer(player.getUniqueId());
+        refreshExecutor.remove(player.getUniqueId());
+        rendered.remove(player.getUniqueId());
     }
 
-    public void close() {
-        this.executorService.shutdown();
+    /**
+     * Whether PlaceholderAPI is resolved in batches on the thread owning the players
+     *
+     * @return true if the placeholders go through the {@link PAPIBatchEvaluator}
+     */
+    private boolean isBatched() {
+        // Refreshes scheduled on the thread of the player also resolve PlaceholderAPI there
+        return papiEnabled && (plugin.getConfigManager().getSettings().isPapiMainThread()
+                || plugin.getNametagManager().isPerPlayerRefresh());
+    }
+
+    public int getQueueDepth() {
+        return refreshExecutor.getQueueDepth();
     }
 
 
+    /**
+     * Render the nametag of a player. Renders of the same player are coalesced, a render still waiting
+     * when a newer one is requested completes with {@code null} and the newer one is applied instead.
+     *
+     * @param player       the player
+     * @param nameTag      the nametag of the player
+     * @param helmetHeight the height of the helmet model of the player, read by the caller on the thread owning the player
+     * @return the rendered nametag, or {@code null} if the render was replaced
+     */
     @NotNull
-    public CompletableFuture<Component> applyPlaceholders(@NotNull Player player, @NotNull List<String> lines) {
-        return CompletableFuture.supplyAsync(() -> createComponent(player, lines), executorService);
+    public CompletableFuture<Component> applyPlaceholders(@NotNull Player player, @NotNull Settings.NameTag nameTag,
+                                                          double helmetHeight) {
+        if (!isBatched()) {
+            return refreshExecutor.submit(player.getUniqueId(),
+                    () -> createComponent(player, nameTag, p -> papiEnabled ? papiManager.setPlaceholders(player, p) : p, helmetHeight));
+        }
+
+        final List<String> placeholders = getTemplates(nameTag).placeholders();
+        return refreshExecutor.submitAsync(player.getUniqueId(), () -> batchEvaluator.resolve(player, placeholders)
+                .thenApplyAsync(values -> createComponent(player, nameTag, p -> values.getOrDefault(p, p), helmetHeight),
+                        refreshExecutor.getExecutor()));
+    }
+
+    /**
+     * Whether the nametag has animated lines
+     *
+     * @param nameTag the nametag
+     * @return true if at least one line uses a phase
+     */
+    public boolean isAnimated(@NotNull Settings.NameTag nameTag) {
+        return getTemplates(nameTag).framePeriod() > 0;
+    }
+
+    /**
+     * Render the next frame of the animated lines of a player, reusing the static lines and the placeholder
+     * values of the last full render. The frame is skipped if the player is already being rendered or if the
+     * animation didn't move since the last render.
+     *
+     * @param player  the player
+     * @param nameTag the nametag of the player
+     * @return the rendered nametag, or empty if the frame was skipped. The future completes with {@code null}
+     * if a newer render replaced the frame before it ran
+     */
+    @NotNull
+    public Optional<CompletableFuture<Component>> applyAnimations(@NotNull Player player, @NotNull Settings.NameTag nameTag) {
+        final RenderedNameTag last = rendered.get(player.getUniqueId());
+        if (last == null || !last.nameTag().equals(nameTag) || !refreshExecutor.isIdle(player.getUniqueId())) {
+            return Optional.empty();
+        }
+
+        final CompiledNameTag compiled = getTemplates(nameTag);
+        final long tick = clock.getTick();
+        if (compiled.framePeriod() == 0 || tick / compiled.framePeriod() == last.tick() / compiled.framePeriod()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(refreshExecutor.submit(player.getUniqueId(), () -> createFrame(player, last, compiled, tick)));
     }
 
     private static int MORE_LINES = 15;
 
     @NotNull
-    private Component createComponent(@NotNull Player player, @NotNull List<String> strings) {
-        final double moreLines = plugin.getHook(OraxenHook.class).map(hook -> hook.getHigh(player)).orElse(0d);
-        if (moreLines > 0) {
-            strings = new ArrayList<>(strings);
-            int lines = (int) (moreLines / MORE_LINES);
-            for (int i = 0; i < lines; i++) {
-                strings.add(" ");
+    private Component createComponent(@NotNull Player player, @NotNull Settings.NameTag nameTag,
+                                      @NotNull Function<String, String> placeholders, double helmetHeight) {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        final boolean removeEmptyLines = settings.isRemoveEmptyLines();
+        final Formatter formatter = settings.getFormat();
+        final List<LineTemplate> templates = getTemplates(nameTag).lines();
+        final Component[] lines = new Component[templates.size()];
+        final Map<String, String> values = Maps.newHashMap();
+        final long tick = clock.getTick();
+
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = renderLine(player, templates.get(i), p -> values.computeIfAbsent(p, placeholders), tick,
+                    formatter, removeEmptyLines);
+        }
+
+        final int padding = helmetHeight > 0 ? (int) (helmetHeight / MORE_LINES) : 0;
+
+        final RenderedNameTag render = new RenderedNameTag(nameTag, lines, values, padding, tick);
+        store(player, render);
+        return join(player, render, formatter);
+    }
+
+    @NotNull
+    private Component createFrame(@NotNull Player player, @NotNull RenderedNameTag last,
+                                  @NotNull CompiledNameTag compiled, long tick) {
+        final Settings settings = plugin.getConfigManager().getSettings();
+        final boolean removeEmptyLines = settings.isRemoveEmptyLines();
+        final Formatter formatter = settings.getFormat();
+        final Component[] lines = last.lines().clone();
+
+        for (int i = 0; i < lines.length; i++) {
+            final LineTemplate template = compiled.lines().get(i);
+            if (template.isAnimated()) {
+                lines[i] = renderLine(player, template, p -> last.values().getOrDefault(p, p), tick, formatter, removeEmptyLines);
             }
         }
-        return Component.join(JoinConfiguration.separator(Component.newline()), strings.stream()
-                .map(t -> papiManager.isPAPIEnabled() ? papiManager.setPlaceholders(player, t) : t)
-                .filter(s -> !plugin.getConfigManager().getSettings().isRemoveEmptyLines() || !s.isEmpty())
-                .map(this::formatPhases)
-                .map(t -> format(t, player))
-                .filter(c -> !plugin.getConfigManager().getSettings().isRemoveEmptyLines() || !c.equals(EMPTY))
-                .toArray(Component[]::new))
-                .compact();
+
+        final RenderedNameTag render = new RenderedNameTag(last.nameTag(), lines, last.values(), last.padding(), tick);
+        store(player, render);
+        return join(player, render, formatter);
+    }
+
+    private void store(@NotNull Player player, @NotNull RenderedNameTag render) {
+        // A render finishing after the player left would never be removed
+        if (player.isOnline()) {
+            rendered.put(player.getUniqueId(), render);
+        }
+    }
+
+    @Nullable
+    private Component renderLine(@NotNull Player player, @NotNull LineTemplate template,
+                                 @NotNull Function<String, String> placeholders, long tick,
+                                 @NotNull Formatter formatter, boolean removeEmptyLines) {
+        final String line = template.apply(placeholders, phase -> clock.getPhase(phase, tick));
+        if (removeEmptyLines && line.isEmpty()) {
+            return null;
+        }
+        // Animated lines change on every frame, caching them would only evict the static lines
+        final Component component = formatter.format(plugin, player, line, !template.isAnimated());
+        if (removeEmptyLines && component.equals(EMPTY)) {
+            return null;
+        }
+        return component;
+    }
+
+    /**
+     * Join the first lines of the last render of a player, used for the reduced nametags of far viewers
+     *
+     * @param player   the player
+     * @param maxLines the maximum amount of lines
+     * @return the joined lines, or empty if the player was not rendered yet
+     */
+    @NotNull
+    public Optional<Component> getLines(@NotNull Player player, int maxLines) {
+        final RenderedNameTag render = rendered.get(player.getUniqueId());
+        if (render == null) {
+            return Optional.empty();
+        }
+        return Optional.of(join(player, render, plugin.getConfigManager().getSettings().getFormat(), maxLines));
     }
 
     @NotNull
-    private String formatPhases(@NotNull String value) {
-        return value.replaceAll("#phase-md#", String.valueOf(index)).replaceAll("#phase-mm#", Integer.toString(mmIndex))
-                .replaceAll("#phase-mm-g#", decimalFormat.format(mGIndex));
+    private Component join(@NotNull Player player, @NotNull RenderedNameTag render, @NotNull Formatter formatter) {
+        return join(player, render, formatter, Integer.MAX_VALUE);
     }
 
     @NotNull
-    private Component format(@NotNull String value, @NotNull Player player) {
-        return plugin.getConfigManager().getSettings().getFormat().format(plugin, player, value);
+    private Component join(@NotNull Player player, @NotNull RenderedNameTag render, @NotNull Formatter formatter, int maxLines) {
+        final List<Component> components = new ArrayList<>(Math.min(render.lines().length, maxLines) + render.padding());
+        for (Component line : render.lines()) {
+            if (components.size() >= maxLines) {
+                break;
+            }
+            if (line != null) {
+                components.add(line);
+            }
+        }
+        if (render.padding() > 0) {
+            final Component empty = formatter.format(plugin, player, " ");
+            for (int i = 0; i < render.padding(); i++) {
+                components.add(empty);
+            }
+        }
+        return Component.join(JoinConfiguration.separator(Component.newline()), components).compact();
+    }
+
+    private record CompiledNameTag(@NotNull List<LineTemplate> lines, @NotNull List<String> placeholders, int framePeriod) {
+    }
+
+    /**
+     * Last render of a player, the lines removed because empty are null
+     */
+    private record RenderedNameTag(@NotNull Settings.NameTag nameTag, @Nullable Component[] lines,
+                                   @NotNull Map<String, String> values, int padding, long tick) {
     }
 
 }
@@ -0,0 +1,172 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs refresh tasks keeping at most one in-flight and one pending task per key.
+ * A new task submitted while another one is pending replaces it, and the caller
+ * that was waiting on the replaced task gets {@code null}, so that the result of
+ * each executed task is applied by a single caller.
+ * Tasks of inactive keys, like players who left, are refused, and their slot is dropped
+ * as soon as the task in flight completes.
+ *
+ * @param <T> the result type of the tasks
+ */
+public class RefreshExecutor<T> {
+
+    private final ExecutorService executor;
+    private final Map<UUID, Slot<T>> slots;
+    private final AtomicInteger pending;
+    private final Predicate<UUID> active;
+
+    public RefreshExecutor(@NotNull ExecutorService executor, @NotNull Predicate<UUID> active) {
+        this.executor = executor;
+        this.active = active;
+        this.slots = Maps.newConcurrentMap();
+        this.pending = new AtomicInteger();
+    }
+
+    @NotNull
+    public CompletableFuture<T> submit(@NotNull UUID key, @NotNull Supplier<T> task) {
+        return submitAsync(key, () -> CompletableFuture.supplyAsync(task, executor));
+    }
+
+    /**
+     * Submit a task that completes on its own, the key stays in-flight until the returned future completes
+     *
+     * @param key  the key of the task
+     * @param task starts the work and returns its future
+     * @return the future of the task, completed with {@code null} if the task was replaced before running
+     * or if the key is not active
+     */
+    @NotNull
+    public CompletableFuture<T> submitAsync(@NotNull UUID key, @NotNull Supplier<CompletableFuture<T>> task) {
+        if (!active.test(key)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Slot<T> slot = slots.computeIfAbsent(key, k -> new Slot<>());
+        final CompletableFuture<T> replaced;
+        final CompletableFuture<T> queued;
+        synchronized (slot) {
+            if (!slot.running) {
+                slot.running = true;
+                replaced = null;
+                queued = null;
+            } else {
+                replaced = slot.pendingFuture;
+                if (replaced == null) {
+                    pending.incrementAndGet();
+                }
+                queued = new CompletableFuture<>();
+                slot.pendingFuture = queued;
+                slot.pendingTask = task;
+            }
+        }
+        if (queued != null) {
+            // Completed outside the lock, as the callbacks of the replaced caller run on this thread
+            if (replaced != null) {
+                replaced.complete(null);
+            }
+            return queued;
+        }
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        execute(key, slot, task, future);
+        return future;
+    }
+
+    private void execute(@NotNull UUID key, @NotNull Slot<T> slot, @NotNull Supplier<CompletableFuture<T>> task, @NotNull CompletableFuture<T> future) {
+        CompletableFuture<T> result;
+        try {
+            result = task.get();
+        } catch (Throwable t) {
+            result = CompletableFuture.failedFuture(t);
+        }
+        result.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(value);
+            }
+            next(key, slot);
+        });
+    }
+
+    private void next(@NotNull UUID key, @NotNull Slot<T> slot) {
+        final Supplier<CompletableFuture<T>> task;
+        final CompletableFuture<T> future;
+        synchronized (slot) {
+            if (slot.pendingFuture == null) {
+                slot.running = false;
+                if (!active.test(key)) {
+                    // The key was removed while the task was running, or the task slipped in right before it was removed
+                    slots.remove(key, slot);
+                }
+                return;
+            }
+            task = slot.pendingTask;
+            future = slot.pendingFuture;
+            slot.pendingTask = null;
+            slot.pendingFuture = null;
+            pending.decrementAndGet();
+        }
+        execute(key, slot, task, future);
+    }
+
+    /**
+     * Whether a task for the given key is running or waiting to run
+     *
+     * @param key the key of the task
+     * @return true if the key has no work in progress
+     */
+    public boolean isIdle(@NotNull UUID key) {
+        final Slot<T> slot = slots.get(key);
+        if (slot == null) {
+            return true;
+        }
+        synchronized (slot) {
+            return !slot.running;
+        }
+    }
+
+    /**
+     * Amount of tasks waiting to be executed, both in the executor queue and replaced-on-submit slots
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        final int queued = executor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+        return queued + pending.get();
+    }
+
+    @NotNull
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void remove(@NotNull UUID key) {
+        slots.remove(key);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class Slot<T> {
+        private boolean running;
+        private Supplier<CompletableFuture<T>> pendingTask;
+        private CompletableFuture<T> pendingFuture;
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.alexdev.unlimitednametags.utils;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to Java 21 virtual threads while the plugin is still compiled against Java 17
+ */
+@UtilityClass
+public class VirtualThreads {
+
+    /**
+     * Create an executor that starts a new named virtual thread for each task
+     *
+     * @param name the prefix of the thread names
+     * @return the executor, or empty if the running Java version has no virtual threads
+     */
+    @NotNull
+    public Optional<ExecutorService> newVirtualThreadPerTaskExecutor(@NotNull String name) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Object named = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 1L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(named);
+            return Optional.of((ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return Optional.empty();
+        }
+    }
+
+}
@@ -3,10 +3,44 @@ package org.alexdev.unlimitednametags.vanish;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public interface VanishIntegration {
 
     boolean canSee(@NotNull Player name, @NotNull Player other);
 
     boolean isVanished(@NotNull Player name);
 
+    /**
+     * Get the players that can see a player among many candidates at once.
+     * Override it if the vanish plugin can answer for many viewers faster than with one {@link #canSee(Player, Player)} per viewer.
+     *
+     * @param other      the player to be seen
+     * @param candidates the candidate viewers
+     * @return the candidates that can see the player
+     */
+    @NotNull
+    default Collection<Player> getViewers(@NotNull Player other, @NotNull Collection<? extends Player> candidates) {
+        final List<Player> viewers = new ArrayList<>(candidates.size());
+        for (Player candidate : candidates) {
+            if (canSee(candidate, other)) {
+                viewers.add(candidate);
+            }
+        }
+        return viewers;
+    }
+
+    /**
+     * Whether the results of this integration can be cached until a player is vanished or un-vanished through the API,
+     * or until the cache is invalidated with {@link org.alexdev.unlimitednametags.api.UNTAPI#notifyVisibilityChanged(Player)}.
+     * Only return true if the vanish plugin notifies every visibility change this way, otherwise stale results would be kept.
+     *
+     * @return true if the results can be cached
+     */
+    default boolean isCacheable() {
+        return false;
+    }
+
 }
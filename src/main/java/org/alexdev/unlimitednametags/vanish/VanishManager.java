@@ -1,22 +1,38 @@
 package org.alexdev.unlimitednametags.vanish;
 
 
+import com.google.common.collect.Maps;
 import org.alexdev.unlimitednametags.UnlimitedNameTags;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 public class VanishManager {
 
     private final UnlimitedNameTags plugin;
+    private final Map<UUID, Boolean> vanished;
+    // player -> viewer -> whether the viewer can see the player
+    private final Map<UUID, Map<UUID, Boolean>> visibility;
     private VanishIntegration integration;
 
     public VanishManager(@NotNull UnlimitedNameTags plugin) {
         this.plugin = plugin;
+        this.vanished = Maps.newConcurrentMap();
+        this.visibility = Maps.newConcurrentMap();
         setIntegration(new DefaultVanishIntegration());
     }
 
     public void setIntegration(@NotNull VanishIntegration integration) {
         this.integration = integration;
+        vanished.clear();
+        visibility.clear();
     }
 
     @NotNull
@@ -25,18 +41,76 @@ public class VanishManager {
     }
 
     public boolean canSee(@NotNull Player name, @NotNull Player other) {
-        return integration.canSee(name, other);
+        if (!integration.isCacheable()) {
+            return integration.canSee(name, other);
+        }
+        return visibility.computeIfAbsent(other.getUniqueId(), k -> Maps.newConcurrentMap())
+                .computeIfAbsent(name.getUniqueId(), k -> integration.canSee(name, other));
     }
 
     public boolean isVanished(@NotNull Player name) {
-        return integration.isVanished(name);
+        if (!integration.isCacheable()) {
+            return integration.isVanished(name);
+        }
+        return vanished.computeIfAbsent(name.getUniqueId(), k -> integration.isVanished(name));
+    }
+
+    /**
+     * Get the candidates that can see a player, asking the integration only for the viewers not cached yet
+     *
+     * @param other      the player to be seen
+     * @param candidates the candidate viewers
+     * @return the candidates that can see the player
+     */
+    @NotNull
+    public Collection<? extends Player> getViewers(@NotNull Player other, @NotNull Collection<? extends Player> candidates) {
+        if (!isVanished(other)) {
+            return candidates;
+        }
+        if (!integration.isCacheable()) {
+            return integration.getViewers(other, candidates);
+        }
+
+        final Map<UUID, Boolean> cached = visibility.computeIfAbsent(other.getUniqueId(), k -> Maps.newConcurrentMap());
+        final List<Player> viewers = new ArrayList<>(candidates.size());
+        final List<Player> unknown = new ArrayList<>();
+        for (Player candidate : candidates) {
+            final Boolean canSee = cached.get(candidate.getUniqueId());
+            if (canSee == null) {
+                unknown.add(candidate);
+            } else if (canSee) {
+                viewers.add(candidate);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            final Set<Player> visible = new HashSet<>(integration.getViewers(other, unknown));
+            for (Player candidate : unknown) {
+                cached.put(candidate.getUniqueId(), visible.contains(candidate));
+            }
+            viewers.addAll(visible);
+        }
+        return viewers;
+    }
+
+    /**
+     * Forget the cached visibility of a player, both as a viewer and as a player to be seen
+     *
+     * @param player the player
+     */
+    public void invalidate(@NotNull Player player) {
+        vanished.remove(player.getUniqueId());
+        visibility.remove(player.getUniqueId());
+        visibility.values().forEach(viewers -> viewers.remove(player.getUniqueId()));
     }
 
     public void vanishPlayer(@NotNull Player player) {
+        invalidate(player);
         plugin.getNametagManager().vanishPlayer(player);
     }
 
     public void unVanishPlayer(@NotNull Player player) {
+        invalidate(player);
         plugin.getNametagManager().unVanishPlayer(player);
     }
 }
@@ -0,0 +1,200 @@
+package org.alexdev.unlimitednametags.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The single pass translation must render like the MineDown pipeline it replaces
+ */
+class UniversalParserTest {
+
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.builder()
+            .character('&')
+            .hexCharacter('#')
+            .useUnusualXRepeatedCharacterHexFormat()
+            .hexColors()
+            .build();
+
+    /**
+     * Text without MiniMessage tags must keep the semantics of the legacy deserializer, the first step of the MineDown pipeline
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Plain text",
+            "&cRed",
+            "&c&lRed bold",
+            "&lBold&cRed",
+            "&cRed&rPlain",
+            "&aGreen &eYellow",
+            "&o&nItalic underlined &mstrike",
+            "&kMagic&r done",
+            "&6Gold &7[&fAdmin&7] &fName",
+            "&#ff8800Orange",
+            "&#FF8800Orange &lbold",
+            "&#123abcA&#abcdefB",
+            "&l&#ff8800Orange not bold",
+            "&x&f&f&8&8&0&0Orange",
+            "&x&1&2&3&a&b&cText&lBold",
+            "&cRed&x&0&0&f&f&0&0Green"
+    })
+    void legacySemantics(@NotNull String text) {
+        final String miniMessage = UniversalParser.toMiniMessage(text);
+        assertNotNull(miniMessage, () -> text + " should not need MineDown");
+        assertEquals(runs(LEGACY.deserialize(text)), runs(MiniMessage.miniMessage().deserialize(miniMessage)), text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "Plain text",
+            "&cRed",
+            "&c&lRed bold",
+            "&lBold&cRed",
+            "&cRed&rPlain",
+            "&aGreen &eYellow",
+            "&o&nItalic underlined &mstrike",
+            "&kMagic&r done",
+            "&6Gold &7[&fAdmin&7] &fName"
+    })
+    void legacyCodes(@NotNull String text) {
+        assertSameOutput(text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "&#ff8800Orange",
+            "&#FF8800Orange &lbold",
+            "&#123abcA&#abcdefB",
+            "&l&#ff8800Orange not bold"
+    })
+    void hexColors(@NotNull String text) {
+        assertSameOutput(text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "&x&f&f&8&8&0&0Orange",
+            "&x&1&2&3&a&b&cText&lBold",
+            "&cRed&x&0&0&f&f&0&0Green"
+    })
+    void repeatedHexColors(@NotNull String text) {
+        assertSameOutput(text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "<red>Red &lbold",
+            "&aGreen <bold>bold</bold>",
+            "<gradient:red:blue>Gradient</gradient> &cred",
+            "&c<hover:show_text:'Hi'>Hover</hover> text"
+    })
+    void mixedMiniMessage(@NotNull String text) {
+        assertSameOutput(text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "**bold**",
+            "##obfuscated##",
+            "__underlined__",
+            "~~strike~~",
+            "??italic??",
+            "[Click](https://example.com)",
+            "&gold&Gold",
+            "&blue&lHello",
+            "&#ff8800&Orange",
+            "&#ff8800-#0088ff&Gradient",
+            "Escaped \\&c",
+            "Trailing &"
+    })
+    void mineDownFallsBack(@NotNull String text) {
+        assertNull(UniversalParser.toMiniMessage(text));
+    }
+
+    /**
+     * Lines using MineDown only syntax go through the MineDown pipeline, which must still apply it
+     */
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "**bold**|[none BOLD] bold",
+            "##obfuscated##|[none OBFUSCATED] obfuscated",
+            "__underlined__|[none UNDERLINED] underlined",
+            "~~strike~~|[none STRIKETHROUGH] strike",
+            "??italic??|[none ITALIC] italic",
+            "&gold&Gold|[#ffaa00] Gold",
+            "&blue&lHello|[#5555ff] lHello",
+            "&#ff8800&Orange|[#ff8800] Orange"
+    })
+    void mineDownSyntax(@NotNull String text, @NotNull String expected) {
+        assertNull(UniversalParser.toMiniMessage(text));
+        assertEquals(List.of(expected), runs(MiniMessage.miniMessage().deserialize(UniversalParser.viaMineDown(text))), text);
+    }
+
+    private static void assertSameOutput(@NotNull String text) {
+        final String miniMessage = UniversalParser.toMiniMessage(text);
+        assertNotNull(miniMessage, () -> text + " should not need MineDown");
+        final Component expected = MiniMessage.miniMessage().deserialize(UniversalParser.viaMineDown(text));
+        final Component actual = MiniMessage.miniMessage().deserialize(miniMessage);
+        assertEquals(runs(expected), runs(actual), text);
+    }
+
+    /**
+     * Flatten a component into the text runs a client would render, ignoring how the tree is built
+     */
+    @NotNull
+    private static List<String> runs(@NotNull Component component) {
+        final List<String> runs = new ArrayList<>();
+        final List<String> styles = new ArrayList<>();
+        flatten(component, Style.empty(), runs, styles);
+        return runs;
+    }
+
+    private static void flatten(@NotNull Component component, @NotNull Style parent,
+                                @NotNull List<String> runs, @NotNull List<String> styles) {
+        final Style style = component.style().merge(parent, Style.Merge.Strategy.IF_ABSENT_ON_TARGET);
+        if (component instanceof TextComponent text && !text.content().isEmpty()) {
+            final String key = key(style);
+            final int last = runs.size() - 1;
+            if (last >= 0 && styles.get(last).equals(key)) {
+                runs.set(last, runs.get(last) + text.content());
+            } else {
+                runs.add(key + text.content());
+                styles.add(key);
+            }
+        }
+        for (Component child : component.children()) {
+            flatten(child, style, runs, styles);
+        }
+    }
+
+    @NotNull
+    private static String key(@NotNull Style style) {
+        final TextColor color = style.color();
+        final StringBuilder key = new StringBuilder("[").append(color == null ? "none" : color.asHexString());
+        for (TextDecoration decoration : TextDecoration.values()) {
+            if (style.decoration(decoration) == TextDecoration.State.TRUE) {
+                key.append(' ').append(decoration);
+            }
+        }
+        if (style.hoverEvent() != null) {
+            key.append(" hover");
+        }
+        return key.append("] ").toString();
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.alexdev.unlimitednametags.events;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Both directions of the table must agree, also after slots are freed and reused
+ */
+class TrackingTableTest {
+
+    private final TrackingTable table = new TrackingTable();
+    private final UUID viewer = UUID.randomUUID();
+    private final UUID target = UUID.randomUUID();
+    private final UUID other = UUID.randomUUID();
+
+    @Test
+    void addAndRemove() {
+        table.add(viewer, target);
+        assertTrue(table.isTracking(viewer, target));
+        assertFalse(table.isTracking(target, viewer));
+        assertEquals(Set.of(target), table.getTracked(viewer));
+        assertEquals(Set.of(viewer), table.getTrackers(target));
+
+        table.remove(viewer, target);
+        assertFalse(table.isTracking(viewer, target));
+        assertEquals(Set.of(), table.getTracked(viewer));
+        assertEquals(Set.of(), table.getTrackers(target));
+    }
+
+    @Test
+    void unknownPlayers() {
+        assertFalse(table.isTracking(viewer, target));
+        assertEquals(Set.of(), table.getTracked(viewer));
+        assertEquals(Set.of(), table.getTrackers(target));
+        table.remove(viewer, target);
+        table.removePlayer(viewer);
+    }
+
+    @Test
+    void removePlayerClearsBothSides() {
+        table.add(viewer, target);
+        table.add(target, viewer);
+        table.add(other, target);
+
+        table.removePlayer(target);
+        assertEquals(Set.of(), table.getTracked(viewer));
+        assertEquals(Set.of(), table.getTracked(other));
+        assertEquals(Set.of(), table.getTrackers(viewer));
+        assertFalse(table.isTracking(other, target));
+    }
+
+    @Test
+    void reusedSlotStartsEmpty() {
+        table.add(viewer, target);
+        table.removePlayer(target);
+
+        // other takes the slot freed by target, it must not inherit its trackers
+        table.add(other, viewer);
+        assertEquals(Set.of(), table.getTrackers(other));
+        assertEquals(Set.of(), table.getTracked(viewer));
+        assertEquals(Set.of(other), table.getTrackers(viewer));
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        final List<UUID> targets = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final UUID uuid = UUID.randomUUID();
+            targets.add(uuid);
+            table.add(viewer, uuid);
+        }
+        assertEquals(Set.copyOf(targets), table.getTracked(viewer));
+        targets.forEach(uuid -> assertEquals(Set.of(viewer), table.getTrackers(uuid)));
+    }
+
+    @Test
+    void clear() {
+        table.add(viewer, target);
+        table.clear();
+        assertFalse(table.isTracking(viewer, target));
+        table.add(other, viewer);
+        assertEquals(Set.of(viewer), table.getTracked(other));
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.alexdev.unlimitednametags.packet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Nametag ids come from the reserved range and are not reused while quarantined
+ */
+class EntityIdAllocatorTest {
+
+    private final EntityIdAllocator allocator = new EntityIdAllocator();
+
+    @Test
+    void allocatesUniqueIdsInRange() {
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final int id = allocator.allocate();
+            assertTrue(EntityIdAllocator.isInRange(id));
+            assertTrue(ids.add(id));
+        }
+    }
+
+    @Test
+    void quarantinesReleasedIds() {
+        final int id = allocator.allocate();
+        allocator.release(id);
+        assertNotEquals(id, allocator.allocate());
+    }
+
+    @Test
+    void releasesOnlyOnce() {
+        final int id = allocator.allocate();
+        allocator.release(id);
+        allocator.release(id);
+        allocator.release(EntityIdAllocator.RANGE_END - 1);
+        assertFalse(allocator.isCollision(id));
+    }
+
+    @Test
+    void range() {
+        assertTrue(EntityIdAllocator.isInRange(EntityIdAllocator.RANGE_START));
+        assertFalse(EntityIdAllocator.isInRange(EntityIdAllocator.RANGE_END));
+        assertFalse(EntityIdAllocator.isInRange(EntityIdAllocator.RANGE_START - 1));
+        assertFalse(EntityIdAllocator.isInRange(42));
+    }
+
+    @Test
+    void collisions() {
+        final int id = allocator.allocate();
+        assertFalse(allocator.isCollision(id));
+        assertFalse(allocator.isCollision(42));
+        assertTrue(allocator.isCollision(id + 1));
+        assertEquals(id + 1, allocator.allocate());
+        assertFalse(allocator.isCollision(id + 1));
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.alexdev.unlimitednametags.packet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The passengers and the reverse index must stay in sync, as an entity rides one vehicle at a time
+ */
+class PassengerRegistryTest {
+
+    private final PassengerRegistry registry = new PassengerRegistry();
+
+    @Test
+    void setAndGet() {
+        final int[] passengers = {2, 3};
+        registry.set(1, passengers);
+        passengers[0] = 4;
+
+        assertArrayEquals(new int[]{2, 3}, registry.get(1));
+        assertArrayEquals(new int[0], registry.get(5));
+    }
+
+    @Test
+    void replacesPassengers() {
+        registry.set(1, new int[]{2, 3});
+        registry.set(1, new int[]{3});
+        assertArrayEquals(new int[]{3}, registry.get(1));
+
+        // 2 left the vehicle, removing it must not touch vehicle 1
+        registry.removePassenger(2);
+        assertArrayEquals(new int[]{3}, registry.get(1));
+    }
+
+    @Test
+    void passengerChangesVehicle() {
+        registry.set(1, new int[]{2, 3});
+        registry.set(4, new int[]{2});
+
+        assertArrayEquals(new int[]{3}, registry.get(1));
+        assertArrayEquals(new int[]{2}, registry.get(4));
+
+        registry.set(4, new int[]{3});
+        assertArrayEquals(new int[0], registry.get(1));
+        assertArrayEquals(new int[]{3}, registry.get(4));
+    }
+
+    @Test
+    void removePassenger() {
+        registry.set(1, new int[]{2, 3});
+        registry.removePassenger(2);
+        assertArrayEquals(new int[]{3}, registry.get(1));
+
+        registry.removePassenger(3);
+        assertArrayEquals(new int[0], registry.get(1));
+        registry.removePassenger(3);
+    }
+
+    @Test
+    void removeVehicle() {
+        registry.set(1, new int[]{2, 3});
+        registry.removeVehicle(1);
+        assertArrayEquals(new int[0], registry.get(1));
+
+        // The passengers don't point to the removed vehicle anymore
+        registry.set(4, new int[]{2});
+        registry.set(1, new int[]{5});
+        registry.removePassenger(2);
+        assertArrayEquals(new int[]{5}, registry.get(1));
+        assertArrayEquals(new int[0], registry.get(4));
+    }
+
+    @Test
+    void emptyPassengersRemoveVehicle() {
+        registry.set(1, new int[]{2});
+        registry.set(1, new int[0]);
+        assertArrayEquals(new int[0], registry.get(1));
+
+        registry.set(3, new int[]{2});
+        assertArrayEquals(new int[]{2}, registry.get(3));
+    }
+
+    @Test
+    void helpers() {
+        final int[] passengers = {1, 2};
+        assertTrue(PassengerRegistry.contains(passengers, 2));
+        assertFalse(PassengerRegistry.contains(passengers, 3));
+        assertSame(passengers, PassengerRegistry.with(passengers, 1));
+        assertArrayEquals(new int[]{1, 2, 3}, PassengerRegistry.with(passengers, 3));
+        assertSame(passengers, PassengerRegistry.without(passengers, 3));
+        assertArrayEquals(new int[]{2}, PassengerRegistry.without(passengers, 1));
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The phases must cycle through the same values the index timers used to
+ */
+class AnimationClockTest {
+
+    private final AnimationClock clock = new AnimationClock();
+
+    @Test
+    void gradientPhases() {
+        final List<String> phases = new ArrayList<>();
+        for (long tick = 0; tick < 20 * Phase.MINIMESSAGE_GRADIENT.getFramePeriod(); tick += Phase.MINIMESSAGE_GRADIENT.getFramePeriod()) {
+            phases.add(clock.getPhase(Phase.MINIMESSAGE_GRADIENT, tick));
+        }
+        assertEquals(List.of("-1", "-0.9", "-0.8", "-0.7", "-0.6", "-0.5", "-0.4", "-0.3", "-0.2", "-0.1",
+                "0", "0.1", "0.2", "0.3", "0.4", "0.5", "0.6", "0.7", "0.8", "0.9"), phases);
+        assertEquals("-1", clock.getPhase(Phase.MINIMESSAGE_GRADIENT, 20L * Phase.MINIMESSAGE_GRADIENT.getFramePeriod()));
+    }
+
+    @Test
+    void miniMessagePhases() {
+        final Set<Integer> phases = new TreeSet<>();
+        for (long tick = 0; tick < 100; tick++) {
+            phases.add(Integer.parseInt(clock.getPhase(Phase.MINIMESSAGE, tick)));
+        }
+        assertEquals(Set.of(2, 3, 4, 5, 6, 7, 8, 9, 10), phases);
+    }
+
+    @Test
+    void mineDownPhases() {
+        assertEquals("16777215", clock.getPhase(Phase.MINEDOWN, 0));
+        assertEquals("16777214", clock.getPhase(Phase.MINEDOWN, Phase.MINEDOWN.getFramePeriod()));
+        assertEquals("1", clock.getPhase(Phase.MINEDOWN, 16777214L * Phase.MINEDOWN.getFramePeriod()));
+        assertEquals("16777215", clock.getPhase(Phase.MINEDOWN, 16777215L * Phase.MINEDOWN.getFramePeriod()));
+    }
+
+}
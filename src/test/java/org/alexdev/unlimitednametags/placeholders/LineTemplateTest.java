@@ -0,0 +1,88 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lines must be split into placeholders exactly where PlaceholderAPI would replace them
+ */
+class LineTemplateTest {
+
+    private static final Map<String, String> VALUES = Map.of(
+            "%player_name%", "Alex",
+            "%vault_eco_balance%", "10",
+            "%server_online players%", "5"
+    );
+
+    @NotNull
+    private static String apply(@NotNull LineTemplate template) {
+        return template.apply(p -> VALUES.getOrDefault(p, p), phase -> "");
+    }
+
+    @Test
+    void placeholders() {
+        final LineTemplate template = LineTemplate.compile("%player_name% has %vault_eco_balance%$");
+        assertEquals(List.of("%player_name%", "%vault_eco_balance%"), template.getPlaceholders());
+        assertEquals("Alex has 10$", apply(template));
+    }
+
+    @Test
+    void strayPercent() {
+        final LineTemplate template = LineTemplate.compile("100% of %player_name%");
+        assertEquals(List.of("%player_name%"), template.getPlaceholders());
+        assertEquals("100% of Alex", apply(template));
+    }
+
+    @Test
+    void trailingPercent() {
+        final LineTemplate template = LineTemplate.compile("%player_name% is 100%");
+        assertEquals(List.of("%player_name%"), template.getPlaceholders());
+        assertEquals("Alex is 100%", apply(template));
+    }
+
+    @Test
+    void doublePercent() {
+        final LineTemplate template = LineTemplate.compile("50%% off");
+        assertTrue(template.getPlaceholders().isEmpty());
+        assertTrue(template.isStatic());
+        assertEquals("50%% off", apply(template));
+    }
+
+    @Test
+    void doublePercentBeforePlaceholder() {
+        // PlaceholderAPI consumes %% as a whole, so the second % does not open a placeholder
+        final LineTemplate template = LineTemplate.compile("%%player_name%");
+        assertTrue(template.getPlaceholders().isEmpty());
+        assertEquals("%%player_name%", apply(template));
+    }
+
+    @Test
+    void spaceInParameters() {
+        final LineTemplate template = LineTemplate.compile("Online: %server_online players%");
+        assertEquals(List.of("%server_online players%"), template.getPlaceholders());
+        assertEquals("Online: 5", apply(template));
+    }
+
+    @Test
+    void spaceInIdentifier() {
+        final LineTemplate template = LineTemplate.compile("% not a placeholder_ %player_name%");
+        assertEquals(List.of("%player_name%"), template.getPlaceholders());
+        assertEquals("% not a placeholder_ Alex", apply(template));
+    }
+
+    @Test
+    void staticLine() {
+        final LineTemplate template = LineTemplate.compile("&cStatic");
+        assertTrue(template.isStatic());
+        assertFalse(template.hasPlaceholders());
+        assertEquals("&cStatic", apply(template));
+    }
+
+}
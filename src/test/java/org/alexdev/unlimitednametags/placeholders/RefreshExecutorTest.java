@@ -0,0 +1,119 @@
+package org.alexdev.unlimitednametags.placeholders;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * At most one task per key may run, and only the latest pending task runs after it
+ */
+class RefreshExecutorTest {
+
+    private final UUID key = UUID.randomUUID();
+    private final Set<UUID> active = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final RefreshExecutor<String> refreshExecutor = new RefreshExecutor<>(executor, active::contains);
+
+    @BeforeEach
+    void activate() {
+        active.add(key);
+    }
+
+    @AfterEach
+    void shutdown() {
+        refreshExecutor.shutdown();
+    }
+
+    @Test
+    void runsTask() throws Exception {
+        assertEquals("done", refreshExecutor.submit(key, () -> "done").get(5, TimeUnit.SECONDS));
+        assertTrue(refreshExecutor.isIdle(key));
+    }
+
+    @Test
+    void coalescesPendingTasks() {
+        final CompletableFuture<String> running = new CompletableFuture<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CompletableFuture<String> first = refreshExecutor.submitAsync(key, () -> {
+            runs.incrementAndGet();
+            return running;
+        });
+        final CompletableFuture<String> replaced = refreshExecutor.submitAsync(key, () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("replaced");
+        });
+        final CompletableFuture<String> latest = refreshExecutor.submitAsync(key, () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("latest");
+        });
+
+        assertFalse(refreshExecutor.isIdle(key));
+        assertEquals(1, refreshExecutor.getQueueDepth());
+        assertTrue(replaced.isDone());
+        assertNull(replaced.join());
+        assertFalse(latest.isDone());
+
+        running.complete("first");
+        assertEquals("first", first.join());
+        assertEquals("latest", latest.join());
+        assertEquals(2, runs.get());
+        assertEquals(0, refreshExecutor.getQueueDepth());
+        assertTrue(refreshExecutor.isIdle(key));
+    }
+
+    @Test
+    void failedTaskRunsPending() {
+        final CompletableFuture<String> running = new CompletableFuture<>();
+        final CompletableFuture<String> first = refreshExecutor.submitAsync(key, () -> running);
+        final CompletableFuture<String> next = refreshExecutor.submitAsync(key, () -> CompletableFuture.completedFuture("next"));
+
+        running.completeExceptionally(new IllegalStateException());
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals("next", next.join());
+    }
+
+    @Test
+    void refusesInactiveKeys() {
+        final UUID other = UUID.randomUUID();
+        final AtomicInteger runs = new AtomicInteger();
+        final CompletableFuture<String> future = refreshExecutor.submitAsync(other, () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("value");
+        });
+
+        assertNull(future.join());
+        assertEquals(0, runs.get());
+        assertTrue(refreshExecutor.isIdle(other));
+    }
+
+    @Test
+    void dropsSlotOfKeyRemovedWhileRunning() {
+        final CompletableFuture<String> running = new CompletableFuture<>();
+        refreshExecutor.submitAsync(key, () -> running);
+        active.remove(key);
+        refreshExecutor.remove(key);
+
+        running.complete("late");
+        assertTrue(refreshExecutor.isIdle(key));
+
+        // The player joined again, its refreshes run right away
+        active.add(key);
+        final CompletableFuture<String> next = refreshExecutor.submitAsync(key, () -> CompletableFuture.completedFuture("next"));
+        assertEquals("next", next.join());
+    }
+
+}